@@ -0,0 +1,98 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generated transactions for the benchmarks. Row i of a fixture has a date and type
+ * no other row shares, dates cycle through ten years of days and the type changes
+ * every cycle, so the number of distinct dates and types is fixed by the row count
+ */
+final class BenchmarkFixtures {
+
+    // constant for the number of distinct dates rows cycle through
+    static final int DAYS = 3650;
+
+    // constant for the epoch day of the first fixture date, 01-01-2015
+    static final int FIRST_DAY = 16436;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * @param i the number of the row
+     * @return the fixture row
+     */
+    static Transaction row(int i) {
+        return new Transaction(TransactionDates.format(FIRST_DAY + i % DAYS), "type" + i / DAYS, 1 + i % 10000);
+    }
+
+    /**
+     * Writes a fixture file of the supplied number of rows
+     *
+     * @param file the file to write
+     * @param rows the number of rows to write
+     */
+    static void writeFile(File file, int rows) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             TransactionCsvCodec.Encoder encoder = new TransactionCsvCodec.Encoder(channel)) {
+            for (int i = 0; i < rows; i++) {
+                encoder.encode(row(i));
+            }
+        }
+    }
+
+    /**
+     * Creates a batch where half of the transactions update rows of a fixture
+     * file and the other half create new rows
+     *
+     * @param size the number of transactions in the batch
+     * @param fileRows the number of rows in the fixture file
+     * @return the batch
+     */
+    static Transactions batch(int size, int fileRows) {
+        List<Transaction> entries = new ArrayList<>(size);
+        int updates = size / 2;
+        for (int i = 0; i < updates; i++) {
+            entries.add(row((int) ((long) i * fileRows / updates)));
+        }
+        for (int i = updates; i < size; i++) {
+            entries.add(row(fileRows + i));
+        }
+        Transactions transactions = new Transactions();
+        transactions.setEntries(entries);
+        return transactions;
+    }
+
+    /**
+     * @return a new empty directory under the temp directory
+     */
+    static File createDirectory() throws IOException {
+        return Files.createTempDirectory("transactions-benchmark").toFile();
+    }
+
+    /**
+     * Deletes a directory and everything in it
+     *
+     * @param directory the directory to delete
+     */
+    static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteDirectory(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+
+}
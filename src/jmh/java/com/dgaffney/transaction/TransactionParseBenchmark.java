@@ -0,0 +1,66 @@
+package com.dgaffney.transaction;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per row costs paid on every line of every merge and query,
+ * decoding a line, encoding a transaction and summing two transactions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionParseBenchmark {
+
+    // constant for the number of fixture lines cycled through, a power of two
+    private static final int LINES = 1024;
+
+    TransactionFiles transactionFiles = new TransactionFiles();
+
+    String[] lines = new String[LINES];
+
+    Transaction[] transactions = new Transaction[LINES];
+
+    Transaction total;
+
+    int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < LINES; i++) {
+            transactions[i] = BenchmarkFixtures.row(i * 7919);
+            lines[i] = transactions[i].toCsv();
+        }
+        total = new Transaction(transactions[0].getDate(), transactions[0].getType(), 0);
+    }
+
+    @Benchmark
+    public Transaction createTransactionFromLine() {
+        return transactionFiles.createTransactionFromLine(lines[next++ & (LINES - 1)]);
+    }
+
+    @Benchmark
+    public String toCsv() {
+        return transactions[next++ & (LINES - 1)].toCsv();
+    }
+
+    @Benchmark
+    public Transaction sumTransactions() {
+        total.sumTransactions(transactions[next++ & (LINES - 1)]);
+        return total;
+    }
+
+}
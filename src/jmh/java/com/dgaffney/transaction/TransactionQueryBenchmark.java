@@ -0,0 +1,106 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures queries against each store engine loaded with the same fixture, with
+ * the default match all filter, an exact date and type and a type regex. The
+ * limit is the size of the fixture so every query reads every match, the csv
+ * engine answers through filterTransactions
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransactionQueryBenchmark {
+
+    @Param({TransactionStoreConfig.CSV_STORE, TransactionStoreConfig.INDEX_STORE, TransactionStoreConfig.COLUMNAR_STORE})
+    String engine;
+
+    @Param({"default", "exact", "regex"})
+    String filter;
+
+    @Param({"100000", "1000000"})
+    int rows;
+
+    File directory;
+
+    TransactionStore store;
+
+    TransactionQuery query;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = BenchmarkFixtures.createDirectory();
+        TransactionFiles transactionFiles = new TransactionFiles(directory);
+        BenchmarkFixtures.writeFile(transactionFiles.getTransactionsFile(), rows);
+        store = createStore(transactionFiles);
+
+        query = new TransactionQuery();
+        query.setLimit(rows);
+        Transaction middle = BenchmarkFixtures.row(rows / 2);
+        switch (filter) {
+            case "exact":
+                query.setDate(middle.getDate());
+                query.setType(middle.getType());
+                break;
+            case "regex":
+                query.setType("type1.*");
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Benchmark
+    public List<Transaction> find() throws Exception {
+        return store.find(query);
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+        BenchmarkFixtures.deleteDirectory(directory);
+    }
+
+    private TransactionStore createStore(TransactionFiles transactionFiles) throws Exception {
+        switch (engine) {
+            case TransactionStoreConfig.INDEX_STORE:
+                IndexedTransactionStore indexedStore = new IndexedTransactionStore(transactionFiles, new TransactionLog(transactionFiles, 64 * 1024 * 1024));
+                indexedStore.load(TimeUnit.HOURS.toMillis(1));
+                return indexedStore;
+            case TransactionStoreConfig.COLUMNAR_STORE:
+                ColumnarTransactionStore columnarStore = new ColumnarTransactionStore(transactionFiles.getDirectory());
+                List<Transaction> entries = new ArrayList<>();
+                TransactionCsvCodec.read(transactionFiles.getTransactionsFile(), (row, nextOffset) -> {
+                    entries.add(row);
+                    return true;
+                });
+                Transactions transactions = new Transactions();
+                transactions.setEntries(entries);
+                columnarStore.merge(transactions);
+                return columnarStore;
+            default:
+                return new CsvTransactionStore(transactionFiles);
+        }
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a single csv merge pass, reading a fixture file and writing the
+ * merged copy, across file sizes and batch sizes. The fixture file itself is
+ * never replaced so every invocation merges into the same file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UpdateAndWriteBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int fileRows;
+
+    @Param({"1", "100", "10000"})
+    int batchSize;
+
+    File directory;
+
+    File transactionFile;
+
+    File transactionCopyFile;
+
+    CsvTransactionStore store;
+
+    Transactions batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = BenchmarkFixtures.createDirectory();
+        TransactionFiles transactionFiles = new TransactionFiles(directory);
+        transactionFile = transactionFiles.getTransactionsFile();
+        transactionCopyFile = transactionFiles.getTransactionsCopyFile();
+        BenchmarkFixtures.writeFile(transactionFile, fileRows);
+        store = new CsvTransactionStore(transactionFiles);
+        batch = BenchmarkFixtures.batch(batchSize, fileRows);
+    }
+
+    @Benchmark
+    public TransactionResult updateAndWrite() throws IOException {
+        return store.updateAndWrite(transactionFile, transactionCopyFile, batch);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkFixtures.deleteDirectory(directory);
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.dgaffney.transaction;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed point amounts held as a long number of cents. Parsing follows the
+ * same ^-?\d+\.\d{2}$ rule transactions are validated with so an amount is
+ * parsed once at the boundary and summed exactly from then on
+ */
+public final class Amounts {
+
+    // constant for the most bytes an encoded amount takes, a sign, nineteen digits and the point
+    public static final int MAX_ENCODED_LENGTH = 21;
+
+    private Amounts() {
+    }
+
+    /**
+     * Parses an amount such as -12.50 into cents
+     *
+     * @param text the amount to parse
+     * @return the amount in cents
+     * @throws NumberFormatException if the text is not a valid amount or overflows a long
+     */
+    public static long parse(CharSequence text) {
+        return parse(text, 0, text == null ? 0 : text.length());
+    }
+
+    /**
+     * Parses the amount held between two offsets of a character sequence into cents
+     *
+     * @param text the text holding the amount
+     * @param start the offset of the first character of the amount
+     * @param end the offset after the last character of the amount
+     * @return the amount in cents
+     * @throws NumberFormatException if the text is not a valid amount or overflows a long
+     */
+    public static long parse(CharSequence text, int start, int end) {
+        if (text == null) {
+            throw new NumberFormatException("Amount is missing");
+        }
+        int position = start;
+        boolean negative = position < end && text.charAt(position) == '-';
+        if (negative) {
+            position++;
+        }
+        // at least one whole digit, the point and exactly two fraction digits
+        int point = end - 3;
+        if (point <= position || text.charAt(point) != '.') {
+            throw invalid(text, start, end);
+        }
+
+        // accumulate negatively so the most negative amount parses without overflowing
+        long cents = 0;
+        for (; position < end; position++) {
+            if (position == point) {
+                continue;
+            }
+            int digit = text.charAt(position) - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalid(text, start, end);
+            }
+            if (cents < (Long.MIN_VALUE + digit) / 10) {
+                throw invalid(text, start, end);
+            }
+            cents = cents * 10 - digit;
+        }
+        if (negative) {
+            return cents;
+        }
+        if (cents == Long.MIN_VALUE) {
+            throw invalid(text, start, end);
+        }
+        return -cents;
+    }
+
+    /**
+     * Parses the amount held between two offsets of a byte array of ascii digits into cents,
+     * used to decode amounts straight out of a file buffer without building a string first
+     *
+     * @param bytes the bytes holding the amount
+     * @param start the offset of the first byte of the amount
+     * @param end the offset after the last byte of the amount
+     * @return the amount in cents
+     * @throws NumberFormatException if the bytes are not a valid amount or overflow a long
+     */
+    public static long parse(byte[] bytes, int start, int end) {
+        int position = start;
+        boolean negative = position < end && bytes[position] == '-';
+        if (negative) {
+            position++;
+        }
+        int point = end - 3;
+        if (point <= position || bytes[point] != '.') {
+            throw invalid(bytes, start, end);
+        }
+
+        long cents = 0;
+        for (; position < end; position++) {
+            if (position == point) {
+                continue;
+            }
+            int digit = bytes[position] - '0';
+            if (digit < 0 || digit > 9 || cents < (Long.MIN_VALUE + digit) / 10) {
+                throw invalid(bytes, start, end);
+            }
+            cents = cents * 10 - digit;
+        }
+        if (negative) {
+            return cents;
+        }
+        if (cents == Long.MIN_VALUE) {
+            throw invalid(bytes, start, end);
+        }
+        return -cents;
+    }
+
+    /**
+     * Formats cents as an amount with two decimal places
+     *
+     * @param cents the amount in cents
+     * @return the formatted amount
+     */
+    public static String format(long cents) {
+        return appendTo(new StringBuilder(24), cents).toString();
+    }
+
+    /**
+     * Appends cents formatted as an amount with two decimal places
+     *
+     * @param builder the builder to append to
+     * @param cents the amount in cents
+     * @return the builder
+     */
+    public static StringBuilder appendTo(StringBuilder builder, long cents) {
+        if (cents < 0) {
+            builder.append('-');
+        }
+        // the remainder keeps the sign of cents so negate each part instead of cents itself
+        long whole = Math.abs(cents / 100);
+        int fraction = (int) Math.abs(cents % 100);
+        builder.append(whole).append('.');
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        return builder.append(fraction);
+    }
+
+    /**
+     * Writes cents formatted as an amount with two decimal places into a byte array as ascii
+     *
+     * @param cents the amount in cents
+     * @param bytes the bytes to write to, at least {@link #MAX_ENCODED_LENGTH} must be free
+     * @param position the offset to start writing at
+     * @return the offset after the last byte written
+     */
+    public static int encode(long cents, byte[] bytes, int position) {
+        if (cents < 0) {
+            bytes[position++] = '-';
+        }
+        long whole = Math.abs(cents / 100);
+        int fraction = (int) Math.abs(cents % 100);
+
+        // write the whole part backwards from its last digit
+        int digits = 1;
+        for (long remaining = whole / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int digit = end - 1; digit >= position; digit--) {
+            bytes[digit] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        }
+        bytes[end] = '.';
+        bytes[end + 1] = (byte) ('0' + fraction / 10);
+        bytes[end + 2] = (byte) ('0' + fraction % 10);
+        return end + 3;
+    }
+
+    private static NumberFormatException invalid(CharSequence text, int start, int end) {
+        return new NumberFormatException("Invalid amount: " + text.subSequence(start, end));
+    }
+
+    private static NumberFormatException invalid(byte[] bytes, int start, int end) {
+        return new NumberFormatException("Invalid amount: " + new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.dgaffney.transaction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single fixed width column of the columnar transaction format, memory mapped
+ * read-write. The file starts with a header holding a magic number, the width of
+ * a value and the number of values stored, followed by the values themselves so
+ * value n lives at a fixed offset and can be read or updated in place. Growing the
+ * column maps the file again, readers still holding the old mapping see the same
+ * pages so a column can grow while it is being read
+ */
+public class ColumnFile implements Closeable {
+
+    // constant for the magic number at the start of every column file, TXCF in ascii
+    public static final int MAGIC = 0x54584346;
+
+    // constant for the bytes taken by the header, the magic, the width and the count
+    public static final int HEADER_BYTES = 16;
+
+    // constant for the values a new column file has room for before it is grown
+    public static final int INITIAL_CAPACITY = 1024;
+
+    private final FileChannel channel;
+    private final int width;
+    // replaced when the column grows, volatile so readers pick up the new mapping
+    private volatile MappedByteBuffer buffer;
+    private int count;
+
+    public ColumnFile(File file, int width) throws IOException {
+        this.width = width;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean created = channel.size() == 0;
+        map(Math.max(channel.size(), HEADER_BYTES + (long) INITIAL_CAPACITY * width));
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, width);
+            buffer.putLong(8, 0);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != width) {
+            throw new IOException("Not a column file of width " + width + ": " + file);
+        }
+        count = (int) buffer.getLong(8);
+    }
+
+    /**
+     * @return int the number of values stored in the column
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Sets the number of values stored in the column, values past the
+     * count are not part of the column even if they have been written
+     *
+     * @param count the number of values stored
+     */
+    void setCount(int count) {
+        this.count = count;
+        buffer.putLong(8, count);
+    }
+
+    int getInt(int index) {
+        return buffer.getInt(offset(index));
+    }
+
+    void putInt(int index, int value) {
+        buffer.putInt(offset(index), value);
+    }
+
+    long getLong(int index) {
+        return buffer.getLong(offset(index));
+    }
+
+    void putLong(int index, long value) {
+        buffer.putLong(offset(index), value);
+    }
+
+    /**
+     * Grows the mapping so the column has room for at least the supplied number of values,
+     * the capacity is doubled each time so appends cost amortised constant time. Only the
+     * writer calls this, values it writes after growing reach readers of either mapping
+     *
+     * @param capacity the number of values the column must have room for
+     */
+    void ensureCapacity(int capacity) throws IOException {
+        long required = HEADER_BYTES + (long) capacity * width;
+        if (required > buffer.capacity()) {
+            if (required > Integer.MAX_VALUE) {
+                throw new IOException("Column file can't be mapped past 2GB");
+            }
+            long grown = Math.min(Integer.MAX_VALUE, Math.max(required, HEADER_BYTES + 2L * (buffer.capacity() - HEADER_BYTES)));
+            buffer.force();
+            map(grown);
+        }
+    }
+
+    /**
+     * Forces every change made through the mapping to disk
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private int offset(int index) {
+        // the mapping never passes 2GB so the offset of any value inside it fits an int
+        return HEADER_BYTES + index * width;
+    }
+
+    private void map(long size) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.dgaffney.transaction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Undo journal of the columnar transaction format. Amounts are updated in place
+ * through a memory mapping and a crash can leave any of the pages written, so before
+ * a merge updates an amount it records the number of records and the amount of each
+ * record it is about to update, followed by a checksum, and forces them to disk. Once
+ * the columns are forced the journal is cleared. A journal found when the store opens
+ * is complete only if its checksum matches, a complete journal puts the amounts and
+ * the count back and a journal cut short is dropped, as no column was touched before
+ * it was forced
+ */
+public class ColumnJournal implements Closeable {
+
+    // constant for the magic number at the start of a journal, TXJN in ascii
+    public static final int MAGIC = 0x54584a4e;
+
+    // constant for the bytes taken by the magic, the record count and the number of amounts
+    public static final int HEADER_BYTES = 12;
+
+    // constant for the bytes taken by each amount, the record number and the amount
+    public static final int ENTRY_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final FileChannel channel;
+
+    public ColumnJournal(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Records what a merge is about to change and forces it to disk
+     *
+     * @param count the number of records before the merge
+     * @param amounts the amount of each record the merge updates before it does
+     */
+    void record(int count, Map<Integer, Long> amounts) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + amounts.size() * ENTRY_BYTES + Long.BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(count);
+        buffer.putInt(amounts.size());
+        amounts.forEach((record, amount) -> {
+            buffer.putInt(record);
+            buffer.putLong(amount);
+        });
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(checksum.getValue());
+        buffer.flip();
+
+        channel.truncate(0);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Reads the journal left by a merge which did not clear it
+     *
+     * @return Undo what the merge changed or null if there is no complete journal
+     */
+    Undo read() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_BYTES + Long.BYTES || size > Integer.MAX_VALUE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // read until the buffer is full
+        }
+        buffer.flip();
+        int magic = buffer.getInt();
+        int count = buffer.getInt();
+        int entries = buffer.getInt();
+        if (magic != MAGIC || entries < 0 || size != HEADER_BYTES + (long) entries * ENTRY_BYTES + Long.BYTES) {
+            return null;
+        }
+        Map<Integer, Long> amounts = new HashMap<>();
+        for (int entry = 0; entry < entries; entry++) {
+            amounts.put(buffer.getInt(), buffer.getLong());
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, buffer.position());
+        if (buffer.getLong() != checksum.getValue()) {
+            return null;
+        }
+        return new Undo(count, amounts);
+    }
+
+    /**
+     * Empties the journal once the change it records is on disk
+     */
+    void clear() throws IOException {
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * The number of records and the amounts a merge started from
+     */
+    static class Undo {
+
+        final int count;
+        final Map<Integer, Long> amounts;
+
+        Undo(int count, Map<Integer, Long> amounts) {
+            this.count = count;
+            this.amounts = amounts;
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Store engine keeping transactions in a compact binary columnar format. Each
+ * column lives in its own memory mapped {@link ColumnFile}, dates as epoch day
+ * ints, types as ids from a {@link TransactionTypeDictionary} and amounts as
+ * long cents, so a record takes sixteen bytes. Merges update amounts in place
+ * and append new records, and queries only read the columns they need. The
+ * amounts a merge updates in place are first recorded in a {@link ColumnJournal}
+ * so a crash part way through a merge is rolled back when the store next opens
+ */
+public class ColumnarTransactionStore implements TransactionStore {
+
+    // constants for the names of the files making up the columnar format
+    public static final String DAYS_COLUMN = "transactions-days.col";
+    public static final String TYPES_COLUMN = "transactions-types.col";
+    public static final String AMOUNTS_COLUMN = "transactions-amounts.col";
+    public static final String TYPES_DICTIONARY = "transactions-types.dict";
+    public static final String AMOUNTS_JOURNAL = "transactions-amounts.journal";
+
+    ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    TransactionMetrics metrics = TransactionMetrics.noop();
+
+    // serialises merges, the read write lock is only taken while the columns change
+    Lock writerLock = new ReentrantLock();
+
+    ColumnFile days;
+    ColumnFile types;
+    ColumnFile amounts;
+    TransactionTypeDictionary dictionary;
+    ColumnJournal journal;
+
+    // the record holding each epoch day and type id pair
+    Map<Long, Integer> records = new HashMap<>();
+
+    int count;
+
+    public ColumnarTransactionStore(File directory) throws IOException {
+        days = new ColumnFile(new File(directory, DAYS_COLUMN), Integer.BYTES);
+        types = new ColumnFile(new File(directory, TYPES_COLUMN), Integer.BYTES);
+        amounts = new ColumnFile(new File(directory, AMOUNTS_COLUMN), Long.BYTES);
+        dictionary = new TransactionTypeDictionary(new File(directory, TYPES_DICTIONARY));
+        journal = new ColumnJournal(new File(directory, AMOUNTS_JOURNAL));
+        rollBack(journal.read());
+
+        // the days column count is written last so it never counts a record the others lack
+        count = Math.min(days.count(), Math.min(types.count(), amounts.count()));
+        for (int record = 0; record < count; record++) {
+            records.put(key(days.getInt(record), types.getInt(record)), record);
+        }
+    }
+
+    /**
+     * Merges the transactions into the columns, amounts of existing records are updated
+     * in place and new records are appended. The dictionary is forced to disk before the
+     * columns and the days count is updated last so a crash never leaves a record
+     * pointing at a missing type. The columns are grown for the records the batch can
+     * add before readers are locked out, so no remap happens under the lock. Readers are
+     * locked out while values are written into the mappings and forced to disk, so a
+     * reader waits for the force but never sees a value which is not yet on disk. A
+     * failure part way puts back the amounts and record count the batch started from
+     * before readers are let back in, so the batch is either stored whole or not at all.
+     * A batch taking a sum of amounts out of range is put back the same way. A batch
+     * updating stored records journals their amounts before any is written and clears
+     * the journal once the columns are forced, which costs two more forces, so a crash
+     * part way is rolled back when the store opens. A batch which only appends needs
+     * no journal as the records past the days count are ignored
+     *
+     * @param transactions the transactions to merge
+     * @return the transaction result object
+     */
+    @Override
+    public TransactionResult merge(Transactions transactions) {
+        // dates have to be real dates to be held as epoch days, reject the batch before touching any column
+        int[] epochDays = new int[transactions.getEntries().size()];
+        for (int i = 0; i < epochDays.length; i++) {
+            String date = transactions.getEntries().get(i).getDate();
+            try {
+                epochDays[i] = TransactionDates.toEpochDay(date);
+            } catch (DateTimeException e) {
+                return new TransactionResult(0, 0, "Invalid date " + date);
+            }
+        }
+
+        TransactionResult transactionResult = new TransactionResult(0, 0, "No operations occurred");
+        // one writer at a time
+        writerLock.lock();
+        // what the batch changed, to put back if it fails part way
+        int previousCount = count;
+        Map<Integer, Long> previousAmounts = new HashMap<>();
+        boolean[] existed = new boolean[epochDays.length];
+        boolean locked = false;
+        try {
+            // readers keep reading the old mappings while the columns grow
+            int capacity = count + epochDays.length;
+            days.ensureCapacity(capacity);
+            types.ensureCapacity(capacity);
+            amounts.ensureCapacity(capacity);
+
+            // journal the amount of every stored record the batch updates before any is written
+            for (int i = 0; i < epochDays.length; i++) {
+                int typeId = dictionary.find(transactions.getEntries().get(i).getType());
+                Integer record = typeId < 0 ? null : records.get(key(epochDays[i], typeId));
+                if (record != null) {
+                    previousAmounts.putIfAbsent(record, amounts.getLong(record));
+                }
+            }
+            if (!previousAmounts.isEmpty()) {
+                journal.record(previousCount, previousAmounts);
+            }
+
+            int created = 0;
+            // lock readers out of the columns until the batch is on disk
+            metrics.lockWrite(rwLock);
+            locked = true;
+            for (int i = 0; i < epochDays.length; i++) {
+                Transaction transaction = transactions.getEntries().get(i);
+                int typeId = dictionary.idOf(transaction.getType());
+                Integer record = records.get(key(epochDays[i], typeId));
+                if (record != null) {
+                    amounts.putLong(record, Math.addExact(amounts.getLong(record), transaction.getCents()));
+                    existed[i] = true;
+                } else {
+                    append(epochDays[i], typeId, transaction.getCents());
+                    created++;
+                }
+            }
+            dictionary.flush();
+            amounts.setCount(count);
+            types.setCount(count);
+            amounts.force();
+            types.force();
+            days.setCount(count);
+            days.force();
+            if (!previousAmounts.isEmpty()) {
+                journal.clear();
+            }
+            // publish the batch
+            rwLock.writeLock().unlock();
+            locked = false;
+            for (int i = 0; i < existed.length; i++) {
+                if (existed[i]) {
+                    transactions.getEntries().get(i).setExisted(true);
+                }
+            }
+            transactionResult = new TransactionResult(created, epochDays.length - created, TransactionResult.STORED_MESSAGE);
+        } catch (ArithmeticException e) {
+            undo(previousCount, previousAmounts);
+            transactionResult.setMessage(TransactionResult.OVERFLOW_MESSAGE);
+        } catch (Exception e) {
+            e.printStackTrace();
+            undo(previousCount, previousAmounts);
+            transactionResult.setMessage("Error occurred writing");
+        } finally {
+            if (locked) {
+                rwLock.writeLock().unlock();
+            }
+            writerLock.unlock();
+        }
+        return transactionResult;
+    }
+
+    /**
+     * Dates have to be real dates to be held as epoch days
+     *
+     * @param transactions the transactions to check
+     * @return the message naming the first invalid date or null if every date is valid
+     */
+    @Override
+    public String validate(Transactions transactions) {
+        for (Transaction transaction : transactions.getEntries()) {
+            try {
+                TransactionDates.toEpochDay(transaction.getDate());
+            } catch (DateTimeException e) {
+                return "Invalid date " + transaction.getDate();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds transactions matching the supplied query. The type filter is evaluated
+     * once per dictionary entry and the date filter once per distinct day, so the
+     * scan only reads the type and day columns and the amount of matching records,
+     * a filter matching everything is never evaluated at all
+     *
+     * @param query the query params to use as a filter
+     * @return the transactions matching the params
+     */
+    @Override
+    public List<Transaction> find(TransactionQuery query) throws Exception {
+        TransactionFilter transactionFilter = TransactionFilter.of(query);
+        boolean allTypes = transactionFilter.matchesAllTypes();
+        boolean allDates = transactionFilter.matchesAllDates();
+        List<Transaction> entries = new ArrayList<>();
+
+        // lock the columns to allow concurrent readers
+        int scanned = 0;
+        metrics.lockRead(rwLock);
+        try {
+            Boolean[] typeMatches = new Boolean[dictionary.size()];
+            Map<Integer, Boolean> dayMatches = new HashMap<>();
+            for (int record = 0; record < count && entries.size() < query.getLimit(); record++) {
+                scanned++;
+                int typeId = types.getInt(record);
+                if (!allTypes) {
+                    if (typeMatches[typeId] == null) {
+                        typeMatches[typeId] = transactionFilter.matchesType(dictionary.typeOf(typeId));
+                    }
+                    if (!typeMatches[typeId]) {
+                        continue;
+                    }
+                }
+                int epochDay = days.getInt(record);
+                if (!transactionFilter.matchesDay(epochDay)) {
+                    continue;
+                }
+                if (!allDates && !dayMatches.computeIfAbsent(epochDay, day -> transactionFilter.matchesDate(TransactionDates.format(day)))) {
+                    continue;
+                }
+                entries.add(new Transaction(TransactionDates.format(epochDay), dictionary.typeOf(typeId), amounts.getLong(record)));
+            }
+        } finally {
+            // release the read lock
+            rwLock.readLock().unlock();
+        }
+        metrics.recordQuery(scanned, entries.size());
+        return entries;
+    }
+
+    /**
+     * Visits the records in the order they were stored
+     *
+     * @param position the record number to start at
+     * @param handler the handler to receive each record, the offset passed is the next record number
+     */
+    @Override
+    public void scan(long position, TransactionCsvCodec.RowHandler handler) {
+        metrics.lockRead(rwLock);
+        try {
+            for (int record = (int) Math.min(position, count); record < count; record++) {
+                Transaction row = new Transaction(TransactionDates.format(days.getInt(record)), dictionary.typeOf(types.getInt(record)), amounts.getLong(record));
+                if (!handler.handle(row, record + 1)) {
+                    return;
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            dictionary.close();
+            journal.close();
+            amounts.close();
+            types.close();
+            days.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Puts the columns back as a journal left by a crash records them before the merge
+     * the crash cut short, and forces them before clearing the journal
+     *
+     * @param undo the journal read as the store opens, null if there is no complete journal
+     */
+    private void rollBack(ColumnJournal.Undo undo) throws IOException {
+        if (undo != null) {
+            undo.amounts.forEach(amounts::putLong);
+            amounts.setCount(Math.min(amounts.count(), undo.count));
+            types.setCount(Math.min(types.count(), undo.count));
+            amounts.force();
+            types.force();
+            days.setCount(Math.min(days.count(), undo.count));
+            days.force();
+        }
+        journal.clear();
+    }
+
+    /**
+     * Puts the columns back as they were before a failed merge, the merge may still hold
+     * the write lock as it is reentrant. Records appended by the
+     * merge are dropped and the amounts it updated are restored, types it gave ids keep
+     * them as no record refers to them
+     *
+     * @param previousCount the number of records before the merge
+     * @param previousAmounts the amount of each record the merge updated before it did
+     */
+    private void undo(int previousCount, Map<Integer, Long> previousAmounts) {
+        metrics.lockWrite(rwLock);
+        try {
+            for (int record = previousCount; record < count; record++) {
+                records.remove(key(days.getInt(record), types.getInt(record)));
+            }
+            previousAmounts.forEach(amounts::putLong);
+            count = previousCount;
+            amounts.setCount(count);
+            types.setCount(count);
+            days.setCount(count);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Appends a record to the end of the columns, which the merge has already grown to hold it
+     */
+    private void append(int epochDay, int typeId, long cents) {
+        int record = count;
+        days.putInt(record, epochDay);
+        types.putInt(record, typeId);
+        amounts.putLong(record, cents);
+        records.put(key(epochDay, typeId), record);
+        count++;
+    }
+
+    /**
+     * Packs an epoch day and a type id into a single key
+     */
+    private static long key(int epochDay, int typeId) {
+        return ((long) epochDay << 32) | (typeId & 0xFFFFFFFFL);
+    }
+
+}
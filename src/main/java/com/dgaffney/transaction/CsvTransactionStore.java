@@ -0,0 +1,361 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Store engine which keeps no state in memory, every merge streams the whole
+ * transaction file into a copy applying updates on the way and every query
+ * streams the file through the filters. Each merge publishes a new version of
+ * the file by atomically moving the copy over it, a reader works from whichever
+ * version it opened and the file system keeps an old version around until its
+ * last reader closes it, so readers never take a lock or wait for a merge.
+ * Queries against a file past the parallel scan threshold are filtered in
+ * chunks on the common fork join pool
+ */
+public class CsvTransactionStore implements TransactionStore {
+
+    ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    TransactionMetrics metrics = TransactionMetrics.noop();
+
+    // files of at least this many bytes are filtered in parallel chunks
+    long parallelScanThresholdBytes = Long.MAX_VALUE;
+
+    // the bytes of the file filtered by each parallel task
+    long scanChunkBytes = 16 * 1024 * 1024;
+
+    TransactionFiles transactionFiles;
+
+    public CsvTransactionStore(TransactionFiles transactionFiles) {
+        this.transactionFiles = transactionFiles;
+    }
+
+    /**
+     * Persists transactions to a file, this function is thread safe due to
+     * interaction with the single transaction file. This function uses a write lock
+     * to only allow one writer to write to the file at a time. The copy only replaces
+     * the file once it has been written in full and forced to disk, a merge which
+     * fails part way leaves the file as it was. A batch taking a sum of amounts out
+     * of range is rejected the same way
+     *
+     * @param transactions the transactions to persist
+     * @return the transaction result object
+     */
+    @Override
+    public TransactionResult merge(Transactions transactions) {
+        TransactionResult transactionResult = new TransactionResult(0, 0, "No operations occurred");
+
+        try {
+            File transactionFile = transactionFiles.getTransactionsFile();
+            File transactionCopyFile = transactionFiles.getTransactionsCopyFile();
+
+            // lock the file to a single writer
+            metrics.lockWrite(rwLock);
+            try {
+                // write to the file and apply updates if needed
+                long start = System.nanoTime();
+                TransactionResult written = updateAndWrite(transactionFile, transactionCopyFile, transactions);
+                metrics.recordSince(metrics.rewrite, start);
+
+                // swap the copy in for the original while still holding the write lock so
+                // readers never see a missing file
+                start = System.nanoTime();
+                boolean replaced = transactionFiles.replaceFile(transactionCopyFile, transactionFile);
+                metrics.recordSince(metrics.replace, start);
+                if (replaced) {
+                    transactionResult = written;
+                } else {
+                    transactionResult.setMessage("Error occurred replacing");
+                }
+            } finally {
+                // release the write lock
+                rwLock.writeLock().unlock();
+            }
+        } catch (ArithmeticException e) {
+            transactionResult.setMessage(TransactionResult.OVERFLOW_MESSAGE);
+        } catch (Exception e) {
+            e.printStackTrace();
+            transactionResult.setMessage("Error occurred writing");
+        }
+
+        return transactionResult;
+    }
+
+    /**
+     * Writes transactions to the file, updates are carried out on transactions before
+     * writing them out to the csv file. The client batch is collapsed into a hash map
+     * up front so each line of the file costs a single lookup. The copy is forced to
+     * disk before returning so it can be moved over the file
+     *
+     * @param transactionFile the transaction file to read from
+     * @param transactionsCopyFile the transaction copy file to write to
+     * @param transactions the transactions to update and write to the copy file
+     * @return the transaction result
+     */
+    TransactionResult updateAndWrite(File transactionFile, File transactionsCopyFile, Transactions transactions) throws IOException {
+        // collapse the batch so duplicate dates and types within it become one row
+        Map<Transaction, Transaction> batch = collapseTransactions(transactions);
+        // try with resources on the copy file channel and the encoder writing to it
+        try(FileChannel copyChannel = FileChannel.open(transactionsCopyFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            TransactionCsvCodec.Encoder encoder = new TransactionCsvCodec.Encoder(copyChannel)){
+            // read from original transactions the file row by row to keep memory consumption down
+            TransactionCsvCodec.read(transactionFile, (transactionFromFile, nextOffset) -> {
+                // update the matching transaction if there is one
+                updateMatchingTransactions(batch, transactionFromFile);
+
+                // write the transaction out to the copy file
+                appendToTransactionsCopyFile(encoder, transactionFromFile);
+                return true;
+            });
+            // filter out existing transactions to get the new transactions and write them to the file
+            List<Transaction> transactionsToCreate = filterExistingTransactions(batch);
+            transactionsToCreate.forEach(tran -> appendToTransactionsCopyFile(encoder, tran) );
+            encoder.flush();
+            copyChannel.force(true);
+            return new TransactionResult(transactionsToCreate.size(), transactions.getEntries().size() - transactionsToCreate.size(), TransactionResult.STORED_MESSAGE);
+        }catch(UncheckedIOException e){
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Collapses the client transactions into a map keyed by date and type. The key is
+     * the first client transaction seen for a date and type and the value holds the sum
+     * of every client transaction sharing it, later duplicates are marked as existed
+     * as they update the row created by the first
+     *
+     * @param transactions the transactions from the client
+     * @return the collapsed transactions in the order they were first seen
+     */
+    Map<Transaction, Transaction> collapseTransactions(Transactions transactions){
+        Map<Transaction, Transaction> batch = new LinkedHashMap<>();
+        transactions.getEntries().forEach(transaction -> {
+            Transaction collapsed = batch.get(transaction);
+            if(collapsed == null){
+                batch.put(transaction, new Transaction(transaction.getDate(), transaction.getType(), transaction.getCents()));
+            }else{
+                collapsed.sumTransactions(transaction);
+                transaction.setExisted(true);
+            }
+        });
+        return batch;
+    }
+
+    /**
+     * Update the transaction from the file with the collapsed client transaction
+     * matching it by summing their amounts together and marking the collapsed
+     * transaction as having existed previously in the transaction file
+     *
+     * @param batch the collapsed transactions from the client
+     * @param transactionToMatch the transaction to look up in the client transactions
+     */
+    void updateMatchingTransactions(Map<Transaction, Transaction> batch, Transaction transactionToMatch){
+        Transaction collapsed = batch.get(transactionToMatch);
+        if(collapsed != null){
+            // if the transactions are the same sum the transactions
+            transactionToMatch.sumTransactions(collapsed);
+            collapsed.setExisted(true);
+        }
+    }
+
+    /**
+     * Gets all the collapsed transactions which did not previously exist, the first
+     * client transaction for each date and type is marked with whether it existed
+     *
+     * @param batch the collapsed transactions to filter from
+     * @return a list of transactions which can be considered new transactions
+     */
+    List<Transaction> filterExistingTransactions(Map<Transaction, Transaction> batch){
+        List<Transaction> transactionsToCreate = new ArrayList<>();
+        batch.forEach((first, collapsed) -> {
+            first.setExisted(collapsed.isExisted());
+            if(!collapsed.isExisted()){
+                transactionsToCreate.add(collapsed);
+            }
+        });
+        return transactionsToCreate;
+    }
+
+    /**
+     * Append a transaction to the transaction copy file, the encoder only writes
+     * to the file when its buffer fills or it is flushed at the end of the batch.
+     * A failure is thrown on so the copy never replaces the file with rows missing
+     *
+     * @param encoder the encoder writing to the transaction copy file
+     * @param transaction the transaction to append to the file
+     */
+    void appendToTransactionsCopyFile(TransactionCsvCodec.Encoder encoder, Transaction transaction) {
+        try {
+            encoder.encode(transaction);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Gets transactions from the file using the transaction query object
+     *
+     * @param transactionQuery the query params to use as a filter
+     * @return the transactions matching the params
+     */
+    @Override
+    public List<Transaction> find(TransactionQuery transactionQuery) throws Exception {
+        File transactionFile = transactionFiles.getTransactionsFile();
+
+        // get all transactions limited to the supplied or default limit and matching the supplied filters
+        return filterTransactions(transactionFile, transactionQuery);
+    }
+
+    /**
+     * Filters transactions within the supplied transaction file using the
+     * supplied transaction query and returns the transactions as a list, the
+     * scan stops as soon as the limit is reached. The version of the file opened
+     * is never changed by a merge so no lock is needed
+     *
+     * @param transactionFile the transaction file to read from
+     * @param query the query params to filter transactions with
+     * @return a list of filtered transactions form the transaction file
+     */
+    List<Transaction> filterTransactions(File transactionFile, TransactionQuery query) throws Exception{
+        List<Transaction> entries = new ArrayList<>();
+        // compile the transaction filter once for the whole scan
+        TransactionFilter transactionFilter = TransactionFilter.of(query);
+        if(query.getLimit() <= 0){
+            return entries;
+        }
+        if(transactionFile.length() >= parallelScanThresholdBytes){
+            return filterTransactionsInParallel(transactionFile, transactionFilter, query.getLimit());
+        }
+
+        long[] scanned = {0};
+        TransactionCsvCodec.read(transactionFile, (tran, nextOffset) -> {
+            scanned[0]++;
+            if(transactionFilter.test(tran)){
+                entries.add(tran);
+            }
+            // stop reading once the limit of matches is reached
+            return entries.size() < query.getLimit();
+        });
+        metrics.recordQuery(scanned[0], entries.size());
+        return entries;
+    }
+
+    /**
+     * Filters transactions by splitting the file into chunks aligned to row starts and
+     * filtering the chunks on the common fork join pool. Only as many chunks as the pool
+     * runs at once are submitted ahead of the one being joined, so a large file never
+     * floods the shared pool and at most that many chunks hold matches. A chunk keeps at
+     * most the limit of matches and the chunks are joined in file order, so the result is
+     * the same as a sequential scan. Once the chunks joined so far hold the limit no more
+     * chunks are submitted, and any already running stop at their next row
+     *
+     * @param transactionFile the transaction file to read from
+     * @param transactionFilter the compiled filter of the query
+     * @param limit the most transactions to return
+     * @return a list of filtered transactions from the transaction file
+     */
+    List<Transaction> filterTransactionsInParallel(File transactionFile, TransactionFilter transactionFilter, int limit) throws Exception{
+        List<Transaction> entries = new ArrayList<>();
+        LongAdder scanned = new LongAdder();
+        // every chunk reads the version of the file opened here
+        try(FileChannel channel = FileChannel.open(transactionFile.toPath(), StandardOpenOption.READ)){
+            List<Long> starts = TransactionCsvCodec.chunkStarts(channel, scanChunkBytes);
+            int chunks = starts.size() - 1;
+            int window = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+            // chunks after this one are no longer needed
+            AtomicInteger lastNeeded = new AtomicInteger(Integer.MAX_VALUE);
+            Deque<ForkJoinTask<List<Transaction>>> filtering = new ArrayDeque<>();
+            try{
+                int next = 0;
+                while(entries.size() < limit && (next < chunks || !filtering.isEmpty())){
+                    while(next < chunks && filtering.size() < window){
+                        int index = next;
+                        long start = starts.get(next);
+                        long end = starts.get(next + 1);
+                        filtering.add(ForkJoinPool.commonPool().submit(() -> filterChunk(channel, start, end, transactionFilter, limit, index, lastNeeded, scanned)));
+                        next++;
+                    }
+                    List<Transaction> matches = filtering.poll().join();
+                    entries.addAll(matches.subList(0, Math.min(matches.size(), limit - entries.size())));
+                }
+            }catch(UncheckedIOException e){
+                throw e.getCause();
+            }finally{
+                // stop every chunk still going and wait for them so none reads the channel once it is closed
+                lastNeeded.set(-1);
+                filtering.forEach(task -> task.cancel(false));
+                filtering.stream().filter(task -> !task.isCancelled()).forEach(ForkJoinTask::quietlyJoin);
+            }
+        }
+        metrics.recordQuery(scanned.sum(), entries.size());
+        return entries;
+    }
+
+    /**
+     * Filters the rows of one chunk of the file
+     *
+     * @param channel the channel of the version of the file being filtered
+     * @param start the offset of the first row of the chunk
+     * @param end the offset the chunk ends at
+     * @param transactionFilter the compiled filter of the query
+     * @param limit the most matches the chunk has to find
+     * @param chunk the number of the chunk
+     * @param lastNeeded the number of the last chunk whose matches are still needed
+     * @param scanned the count of rows scanned by every chunk
+     * @return the matches in the chunk in file order
+     */
+    private List<Transaction> filterChunk(FileChannel channel, long start, long end, TransactionFilter transactionFilter, int limit,
+                                          int chunk, AtomicInteger lastNeeded, LongAdder scanned){
+        List<Transaction> matches = new ArrayList<>();
+        long[] rows = {0};
+        try{
+            TransactionCsvCodec.read(channel, start, end, (tran, nextOffset) -> {
+                rows[0]++;
+                if(transactionFilter.test(tran)){
+                    matches.add(tran);
+                }
+                return matches.size() < limit && chunk <= lastNeeded.get();
+            });
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }finally{
+            scanned.add(rows[0]);
+        }
+        return matches;
+    }
+
+    /**
+     * Visits the rows of the version of the transaction file current when the visit
+     * starts in the order they are written. A merge rewrites the file and amounts can
+     * change length, so a position from before a merge is moved on to the next row
+     * start rather than decoding from the middle of a row
+     *
+     * @param position the byte offset to start at
+     * @param handler the handler to receive each row, the offset passed is where the next row starts
+     */
+    @Override
+    public void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception {
+        File transactionFile = transactionFiles.getTransactionsFile();
+
+        try(FileChannel channel = FileChannel.open(transactionFile.toPath(), StandardOpenOption.READ)){
+            long end = channel.size();
+            TransactionCsvCodec.read(channel, TransactionCsvCodec.rowStart(channel, Math.min(position, end)), end, handler);
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.dgaffney.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Store which funnels every merge through a single writer thread. Callers queue
+ * their batch and wait on a future, the writer drains whatever is pending into
+ * one combined batch and merges it into the store in a single pass, so a burst
+ * of small posts costs one rewrite or one log append and fsync instead of one
+ * each. Each caller is then handed the created and updated counts of its own
+ * transactions. How long the writer waits for more batches and how many
+ * transactions it combines are configurable. A caller is answered within a bounded
+ * time whether it waits or holds the future, and if the writer stops for any reason every batch still waiting
+ * is failed rather than left waiting. The batches and rows waiting for the writer
+ * are bounded, once either bound is reached an async merge is rejected so the
+ * caller can be told to retry, and a merge waited for waits for room instead
+ */
+public class GroupCommitTransactionStore implements TransactionStore {
+
+    // marks the end of the queue when the store is closed
+    private static final PendingMerge CLOSED = new PendingMerge(new Transactions());
+
+    TransactionStore delegate;
+
+    BlockingQueue<PendingMerge> queue = new LinkedBlockingQueue<>();
+
+    long maxDelayNanos;
+
+    int maxBatchSize;
+
+    // the most batches and rows queued or being committed, a single batch larger than the rows is still taken alone
+    int maxPendingBatches = 256;
+    long maxPendingRows = 1000000;
+
+    // guards the pending counts, notified whenever the writer finishes with a batch
+    private final Object room = new Object();
+    private int pendingBatches;
+    private long pendingRows;
+
+    // how long a caller waits for its batch to be merged
+    long mergeTimeoutMillis = 60000;
+
+    Thread writer;
+
+    // answers the callers whose batch is not merged within the timeout
+    final ScheduledThreadPoolExecutor timeouts;
+
+    volatile boolean closed;
+
+    // set once the writer has stopped, whether closed or killed by an error
+    volatile boolean stopped;
+
+    /**
+     * @param delegate the store the combined batches are merged into
+     * @param maxDelayMillis how long the writer waits for more batches after the first, zero to take only those already queued
+     * @param maxBatchSize the most transactions combined into one merge, a larger batch is merged on its own
+     */
+    public GroupCommitTransactionStore(TransactionStore delegate, long maxDelayMillis, int maxBatchSize) {
+        this.delegate = delegate;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.maxBatchSize = maxBatchSize;
+        this.writer = new Thread(this::drain, "transaction-group-commit");
+        this.writer.setDaemon(true);
+        this.timeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "transaction-group-commit-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a merge answered in time cancels its timeout, which is then dropped rather than left queued
+        this.timeouts.setRemoveOnCancelPolicy(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queues the transactions for the writer, waiting for room in the queue if it is
+     * full, and waits until they are merged or the timeout answers them
+     *
+     * @see #mergeAsync(Transactions)
+     * @param transactions the transactions to merge
+     * @return the transaction result object for these transactions
+     */
+    @Override
+    public TransactionResult merge(Transactions transactions) {
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mergeTimeoutMillis);
+            PendingMerge pending = enqueue(transactions, deadline);
+            if (pending == null) {
+                return new TransactionResult(0, 0, "Timed out waiting for room in the group commit queue");
+            }
+            return answer(pending, deadline - System.nanoTime()).get();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new TransactionResult(0, 0, "Error occurred writing");
+        }
+    }
+
+    /**
+     * Queues the transactions for the writer and hands back the future it completes once
+     * they are merged, so no thread is held while the batch waits for its group. A batch
+     * the store would reject is turned away before it is queued so it never fails the
+     * batches it would have been combined with. A batch queued as the writer stops is
+     * failed here as the writer won't see it. The future is completed once the timeout
+     * has passed even if the writer has not got to the batch
+     *
+     * @param transactions the transactions to merge
+     * @return the future completed with the transaction result object for these transactions
+     * @throws RejectedExecutionException if the most batches or rows are already waiting for the writer
+     */
+    @Override
+    public CompletableFuture<TransactionResult> mergeAsync(Transactions transactions) {
+        try {
+            PendingMerge pending = enqueue(transactions, System.nanoTime());
+            if (pending == null) {
+                throw new RejectedExecutionException("Too many batches waiting for the group commit writer");
+            }
+            return answer(pending, TimeUnit.MILLISECONDS.toNanos(mergeTimeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    /**
+     * Queues the transactions for the writer once there is room for them
+     *
+     * @param transactions the transactions to merge
+     * @param deadline the nano time to wait for room until
+     * @return PendingMerge the queued batch, already answered if it was turned away, or null if there was no room by the deadline
+     */
+    private PendingMerge enqueue(Transactions transactions, long deadline) throws InterruptedException {
+        String invalid = delegate.validate(transactions);
+        if (invalid != null) {
+            return PendingMerge.answered(new TransactionResult(0, 0, invalid));
+        }
+        if (closed || stopped) {
+            return PendingMerge.answered(new TransactionResult(0, 0, "Store is closed"));
+        }
+        PendingMerge pending = new PendingMerge(transactions);
+        if (!reserve(pending, deadline)) {
+            return null;
+        }
+        queue.add(pending);
+        // the writer fails what is queued once it has stopped, anything queued after that is failed here
+        if (stopped) {
+            failQueued();
+        }
+        return pending;
+    }
+
+    /**
+     * Hands back a future answering the caller with the result of its batch, or once the
+     * timeout passes first with an error. A batch the writer has not taken yet is taken
+     * off the queue and is never merged. A batch the writer already holds may still be
+     * merged, its result then carries the future the writer completes so what it stored
+     * can still be accounted for
+     *
+     * @param pending the queued batch
+     * @param timeoutNanos how long until the caller is answered without the result
+     * @return the future completed with the transaction result object for the batch
+     */
+    private CompletableFuture<TransactionResult> answer(PendingMerge pending, long timeoutNanos) {
+        if (pending.result.isDone()) {
+            return pending.result;
+        }
+        CompletableFuture<TransactionResult> answered = new CompletableFuture<>();
+        ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+            if (queue.remove(pending)) {
+                finish(pending, new TransactionResult(0, 0, "Timed out waiting for the merge, it was not stored"));
+            } else {
+                TransactionResult timedOut = new TransactionResult(0, 0, "Timed out waiting for the merge, it may still be stored");
+                timedOut.setPendingMerge(pending.result);
+                answered.complete(timedOut);
+            }
+        }, Math.max(0, timeoutNanos), TimeUnit.NANOSECONDS);
+        pending.result.whenComplete((result, error) -> {
+            timeout.cancel(false);
+            answered.complete(result);
+        });
+        return answered;
+    }
+
+    /**
+     * Counts a batch as pending once the bounds leave room for it
+     *
+     * @param pending the batch to count
+     * @param deadline the nano time to wait for room until
+     * @return true if the batch was counted
+     */
+    private boolean reserve(PendingMerge pending, long deadline) throws InterruptedException {
+        synchronized (room) {
+            while (pendingBatches >= maxPendingBatches || (pendingRows > 0 && pendingRows + pending.rows > maxPendingRows)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(room, remaining);
+            }
+            pendingBatches++;
+            pendingRows += pending.rows;
+            return true;
+        }
+    }
+
+    /**
+     * Hands a caller its result once the writer is done with its batch, and frees the room
+     * the batch took the first time it is finished
+     *
+     * @param pending the batch the writer is done with
+     * @param result the result of the batch
+     */
+    private void finish(PendingMerge pending, TransactionResult result) {
+        if (pending.finished.compareAndSet(false, true)) {
+            synchronized (room) {
+                pendingBatches--;
+                pendingRows -= pending.rows;
+                room.notifyAll();
+            }
+        }
+        pending.result.complete(result);
+    }
+
+    /**
+     * Takes batches off the queue and commits them in groups until the store is closed.
+     * However the writer stops the group it was committing and every batch still queued
+     * are failed so no caller waits on a writer which is gone
+     */
+    void drain() {
+        List<PendingMerge> group = new ArrayList<>();
+        try {
+            while (true) {
+                PendingMerge first = queue.take();
+                if (first == CLOSED) {
+                    return;
+                }
+                group = new ArrayList<>();
+                group.add(first);
+                int size = first.rows;
+                long deadline = System.nanoTime() + maxDelayNanos;
+                boolean closing = false;
+                while (size < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingMerge next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == CLOSED) {
+                        closing = true;
+                        break;
+                    }
+                    group.add(next);
+                    size += next.rows;
+                }
+                commit(group);
+                if (closing) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped = true;
+            // completing a future which was already completed does nothing
+            for (PendingMerge pending : group) {
+                finish(pending, new TransactionResult(0, 0, "Error occurred writing"));
+            }
+            failQueued();
+        }
+    }
+
+    /**
+     * Fails every batch still queued, used once the writer has stopped
+     */
+    void failQueued() {
+        List<PendingMerge> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        queued.forEach(pending -> finish(pending, new TransactionResult(0, 0, "Store is closed")));
+    }
+
+    /**
+     * Merges a group of batches as one and completes each caller with the counts of
+     * its own transactions. Every store marks each transaction which did not create
+     * a row as existed, so a transaction created by an earlier batch in the group
+     * counts as an update for the later one, as it would had they been merged in turn.
+     * When the merge fails part way each caller is handed back its own transactions
+     * which were stored, counted the same way
+     *
+     * @param group the batches to merge
+     */
+    void commit(List<PendingMerge> group) {
+        List<Transaction> entries = new ArrayList<>();
+        for (PendingMerge pending : group) {
+            for (Transaction transaction : pending.transactions.getEntries()) {
+                // the flag is set by the merge, never by the client
+                transaction.setExisted(false);
+                entries.add(transaction);
+            }
+        }
+        Transactions combined = new Transactions();
+        combined.setEntries(entries);
+
+        TransactionResult transactionResult;
+        try {
+            transactionResult = delegate.merge(combined);
+        } catch (Exception e) {
+            e.printStackTrace();
+            transactionResult = new TransactionResult(0, 0, "Error occurred writing");
+        }
+
+        boolean stored = TransactionResult.STORED_MESSAGE.equals(transactionResult.getMessage());
+        // the transactions are shared with the callers so they are told apart by identity
+        Set<Transaction> storedEntries = Collections.newSetFromMap(new IdentityHashMap<>());
+        storedEntries.addAll(transactionResult.getStoredEntries());
+        for (PendingMerge pending : group) {
+            List<Transaction> own = new ArrayList<>();
+            for (Transaction transaction : pending.transactions.getEntries()) {
+                if (stored || storedEntries.contains(transaction)) {
+                    own.add(transaction);
+                }
+            }
+            int created = 0;
+            for (Transaction transaction : own) {
+                if (!transaction.isExisted()) {
+                    created++;
+                }
+            }
+            TransactionResult result = new TransactionResult(created, own.size() - created, transactionResult.getMessage());
+            if (!stored) {
+                result.setStoredEntries(own);
+            }
+            finish(pending, result);
+        }
+    }
+
+    @Override
+    public String validate(Transactions transactions) {
+        return delegate.validate(transactions);
+    }
+
+    @Override
+    public List<Transaction> find(TransactionQuery query) throws Exception {
+        return delegate.find(query);
+    }
+
+    @Override
+    public List<Transaction> findSorted(TransactionQuery query, TransactionSort sort) throws Exception {
+        return delegate.findSorted(query, sort);
+    }
+
+    @Override
+    public void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception {
+        delegate.scan(position, handler);
+    }
+
+    @Override
+    public void addRemovalListener(RemovalListener listener) {
+        delegate.addRemovalListener(listener);
+    }
+
+    /**
+     * Lets the writer commit everything already queued, then closes the store
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            queue.put(CLOSED);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // every batch has been answered so no timeout is left to run
+        timeouts.shutdownNow();
+        delegate.close();
+    }
+
+    /**
+     * A batch waiting to be merged and the future its caller waits on
+     */
+    static class PendingMerge {
+
+        final Transactions transactions;
+        final int rows;
+        final CompletableFuture<TransactionResult> result = new CompletableFuture<>();
+
+        // set once the writer is done with the batch and its room is freed
+        final AtomicBoolean finished = new AtomicBoolean();
+
+        PendingMerge(Transactions transactions) {
+            this.transactions = transactions;
+            this.rows = transactions.getEntries().size();
+        }
+
+        /**
+         * @param result the result to answer with
+         * @return PendingMerge a batch turned away before it was queued
+         */
+        static PendingMerge answered(TransactionResult result) {
+            PendingMerge pending = new PendingMerge(new Transactions());
+            pending.result.complete(result);
+            return pending;
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.dgaffney.transaction;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Store engine which answers merges and queries from a resident
+ * {@link TransactionIndex}. Files are only kept as a durable artifact, each
+ * merge commits the rows it touched to the {@link TransactionLog} and a
+ * background compactor folds the log into the transaction file snapshot
+ */
+public class IndexedTransactionStore implements TransactionStore {
+
+    ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+    TransactionMetrics metrics = TransactionMetrics.noop();
+
+    // serialises merges, the read write lock is only taken to publish them
+    Lock writerLock = new ReentrantLock();
+
+    TransactionFiles transactionFiles;
+
+    TransactionIndex index = new TransactionIndex();
+
+    TransactionLog transactionLog;
+
+    // runs the compactions, the config shares one compactor between every index store it creates
+    // and a store given none creates its own when it loads
+    ScheduledExecutorService compactor;
+
+    // true when the compactor is shared so closing this store only cancels its own compactions
+    boolean sharedCompactor;
+
+    private ScheduledFuture<?> compaction;
+
+    // the size of the index as of the last publish, read by the gauges without taking the lock
+    private volatile int indexRows;
+    private volatile long indexBytes;
+
+    public IndexedTransactionStore(TransactionFiles transactionFiles, TransactionLog transactionLog) {
+        this.transactionFiles = transactionFiles;
+        this.transactionLog = transactionLog;
+    }
+
+    /**
+     * Loads the index by replaying the snapshot and the log tail, then starts the
+     * background compactor which folds the log into the snapshot on a fixed delay
+     *
+     * @param compactionIntervalMillis the delay between compactions in milliseconds
+     */
+    public void load(long compactionIntervalMillis) throws Exception {
+        index.metrics = metrics;
+        metrics.lockWrite(rwLock);
+        try {
+            transactionLog.replay(index::put);
+            publishSizes();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        metrics.trackIndex(this);
+
+        if (compactor == null) {
+            compactor = newCompactor();
+        }
+        compaction = compactor.scheduleWithFixedDelay(this::compact, compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Merges the transactions into the index and commits them to the transaction log.
+     * The merge builds the new versions of the rows it touches and commits them to the
+     * log while readers carry on against the current versions in the index. Only once
+     * the log has forced them to disk are the new versions published, under a write lock
+     * held just long enough to put them in the index, so queries never wait behind the
+     * fsync and never see an uncommitted row. They can still wait for a publish, the
+     * lock is not fair so a query arriving while the publish waits for earlier readers
+     * queues behind it, the wait is recorded by the transactions.lock.wait timer. A
+     * batch taking a sum of amounts out of range is rejected before anything is logged
+     *
+     * @param transactions the transactions to merge
+     * @return the transaction result object
+     */
+    @Override
+    public TransactionResult merge(Transactions transactions) {
+        TransactionResult transactionResult = new TransactionResult(0, 0, "No operations occurred");
+
+        // one writer at a time, the index only changes under this lock so the writer reads it freely
+        writerLock.lock();
+        try {
+            // build the next version of each row touched by the batch, keyed the same way as the index
+            Map<TransactionKey, Transaction> touched = new LinkedHashMap<>();
+            int created = 0;
+            for (Transaction transaction : transactions.getEntries()) {
+                TransactionKey key = TransactionKey.of(transaction);
+                Transaction current = touched.get(key);
+                if (current == null) {
+                    current = index.get(key);
+                }
+                if (current == null) {
+                    created++;
+                } else {
+                    transaction.setExisted(true);
+                }
+                touched.put(key, new Transaction(transaction.getDate(), transaction.getType(),
+                                                 Math.addExact(current == null ? 0 : current.getCents(), transaction.getCents())));
+            }
+
+            // the batch is only committed once the log has forced it to disk
+            long start = System.nanoTime();
+            transactionLog.append(touched.values());
+            metrics.recordSince(metrics.logAppend, start);
+
+            // publish the new versions
+            metrics.lockWrite(rwLock);
+            try {
+                touched.values().forEach(index::put);
+                publishSizes();
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+            transactionResult = new TransactionResult(created, transactions.getEntries().size() - created, TransactionResult.STORED_MESSAGE);
+        } catch (ArithmeticException e) {
+            transactionResult.setMessage(TransactionResult.OVERFLOW_MESSAGE);
+        } catch (Exception e) {
+            e.printStackTrace();
+            transactionResult.setMessage("Error occurred writing");
+        } finally {
+            writerLock.unlock();
+        }
+        return transactionResult;
+    }
+
+    /**
+     * Finds transactions in the index matching the supplied query, using the
+     * secondary indexes where the query allows it. The rows returned are
+     * built from the index for this query so callers never see later merges
+     *
+     * @param query the query params to use as a filter
+     * @return the transactions matching the params
+     */
+    @Override
+    public List<Transaction> find(TransactionQuery query) throws Exception {
+        TransactionFilter transactionFilter = TransactionFilter.of(query);
+
+        // lock the index to allow concurrent readers
+        metrics.lockRead(rwLock);
+        try {
+            return index.find(transactionFilter, query.getLimit());
+        } finally {
+            // release the read lock
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the first rows in the index matching the supplied query in sort order,
+     * sorted by date the index is walked by day and stops once the limit is reached.
+     * The rows returned are built for this query so callers never see later merges
+     *
+     * @param query the query params to use as a filter
+     * @param sort the order to return the matches in
+     * @return the first transactions matching the params in sort order
+     */
+    @Override
+    public List<Transaction> findSorted(TransactionQuery query, TransactionSort sort) throws Exception {
+        TransactionFilter transactionFilter = TransactionFilter.of(query);
+
+        metrics.lockRead(rwLock);
+        try {
+            return index.findSorted(transactionFilter, sort, query.getLimit());
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the rows in the index in the order they were created,
+     * rows keep their number for good so a position stays valid across merges
+     *
+     * @param position the row number to start at
+     * @param handler the handler to receive each row, the offset passed is the next row number
+     */
+    @Override
+    public void scan(long position, TransactionCsvCodec.RowHandler handler) {
+        metrics.lockRead(rwLock);
+        try {
+            int size = index.size();
+            for (int row = (int) Math.min(position, size); row < size; row++) {
+                if (!handler.handle(index.row(row), row + 1)) {
+                    return;
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return int the number of rows in the index
+     */
+    int indexRows() {
+        return indexRows;
+    }
+
+    /**
+     * @return long the estimated heap bytes taken by the index
+     */
+    long indexBytes() {
+        return indexBytes;
+    }
+
+    /**
+     * Records the size of the index for the gauges, called under the write lock whenever
+     * the index changes so a scrape never takes the lock or waits behind a merge
+     */
+    private void publishSizes() {
+        indexRows = index.size();
+        indexBytes = index.estimatedBytes();
+    }
+
+    /**
+     * Folds the transaction log into the snapshot, this runs on the compactor
+     * thread and does not hold the index lock so merges carry on while it runs
+     */
+    void compact() {
+        try {
+            transactionLog.compact();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates a compactor, a single daemon thread which can run the compactions of any number of stores
+     *
+     * @return the compactor
+     */
+    static ScheduledExecutorService newCompactor() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transaction-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the compactions of this store, folds whatever is left in the log and closes it.
+     * A compaction already running finishes first as the log only folds one at a time, and
+     * the log ignores any compaction after it is closed
+     */
+    @Override
+    public void close() {
+        metrics.untrackIndex(this);
+        if (compaction != null) {
+            compaction.cancel(false);
+        }
+        try {
+            if (compactor != null && !sharedCompactor) {
+                compactor.shutdown();
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            transactionLog.compact();
+            transactionLog.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+}
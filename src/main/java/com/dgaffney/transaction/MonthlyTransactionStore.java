@@ -0,0 +1,446 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Store engine which keeps one partition per calendar month, each an independent store
+ * of the configured engine in its own directory. A batch is only merged into the months
+ * it holds, and a query only asks the months its date filter or date range can match,
+ * oldest first. Dates which are not real dates share an undated partition which
+ * sorts after every month. A retention policy removes whole months past a number of
+ * months, either moving their directories to an archive or deleting them, so live
+ * months are never rewritten
+ */
+public class MonthlyTransactionStore implements TransactionStore {
+
+    // constant for the name prefix of the directories holding each month
+    public static final String MONTH_PREFIX = "transactions-month-";
+
+    // constant for the partition key of dates which are not real dates, after every month up to 9999
+    public static final int UNDATED = 1 << 17;
+
+    // constant for the bits of a scan position holding the position inside a month
+    public static final int MONTH_POSITION_BITS = 40;
+
+    // constant for the retention action which moves expired months to the archive directory
+    public static final String ARCHIVE = "archive";
+
+    // constant for the retention action which deletes expired months
+    public static final String DROP = "drop";
+
+    /**
+     * Creates the store of a single month
+     */
+    public interface MonthStoreFactory {
+
+        /**
+         * @param transactionFiles the files of the month
+         * @return TransactionStore the store of the month
+         */
+        TransactionStore create(TransactionFiles transactionFiles) throws Exception;
+    }
+
+    TransactionFiles transactionFiles;
+
+    MonthStoreFactory factory;
+
+    // the stores of each month keyed by year * 12 + month - 1 so they sort by date
+    NavigableMap<Integer, TransactionStore> months = new ConcurrentSkipListMap<>();
+
+    // held shared by every operation and exclusively while expired months are taken out
+    ReadWriteLock retentionLock = new ReentrantReadWriteLock();
+
+    // the number of months kept including the current one, zero to keep every month
+    int retentionMonths;
+
+    // what happens to an expired month, archive or drop
+    String retentionAction = ARCHIVE;
+
+    File archiveDirectory;
+
+    // told about the rows of every month the retention policy takes out
+    List<RemovalListener> removalListeners = new CopyOnWriteArrayList<>();
+
+    ScheduledExecutorService retention = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transaction-retention");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MonthlyTransactionStore(TransactionFiles transactionFiles, MonthStoreFactory factory) {
+        this.transactionFiles = transactionFiles;
+        this.factory = factory;
+        this.archiveDirectory = new File(transactionFiles.getDirectory(), "archive");
+    }
+
+    /**
+     * Opens the store of every month found on disk and applies the retention policy,
+     * once before returning and then on a fixed delay. The first pass runs before the
+     * store is handed out so totals built from it afterwards never count an expired month
+     *
+     * @param retentionIntervalMillis the delay between retention passes in milliseconds
+     */
+    public void load(long retentionIntervalMillis) throws Exception {
+        for (File directory : transactionFiles.getMonthDirectories()) {
+            int month = monthOf(directory.getName().substring(MONTH_PREFIX.length()));
+            months.put(month, factory.create(new TransactionFiles(directory)));
+        }
+        if (retentionMonths > 0) {
+            applyRetention();
+            retention.scheduleWithFixedDelay(this::applyRetention, retentionIntervalMillis, retentionIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Splits the transactions by month and merges each part into its month, months are
+     * created as they are first written to. A batch holding a date from a month past the
+     * retention period is rejected whole as the month would only be removed again. It is
+     * checked while retention can't run, so a month once taken out is never created again
+     * and the rows a removal hands its listeners hold every merge into the month. When a
+     * month fails the transactions of the months which were stored are handed back on the result
+     *
+     * @param transactions the transactions to merge
+     * @return the transaction result object summed over the months
+     */
+    @Override
+    public TransactionResult merge(Transactions transactions) {
+        Map<Integer, List<Transaction>> parts = new LinkedHashMap<>();
+        for (Transaction transaction : transactions.getEntries()) {
+            parts.computeIfAbsent(monthOfDate(transaction.getDate()), month -> new ArrayList<>()).add(transaction);
+        }
+
+        TransactionResult transactionResult = new TransactionResult(0, 0, parts.isEmpty() ? "No operations occurred" : TransactionResult.STORED_MESSAGE);
+        retentionLock.readLock().lock();
+        try {
+            String invalid = validate(transactions);
+            if (invalid != null) {
+                return new TransactionResult(0, 0, invalid);
+            }
+            for (Map.Entry<Integer, List<Transaction>> part : parts.entrySet()) {
+                Transactions monthPart = new Transactions();
+                monthPart.setEntries(part.getValue());
+                try {
+                    PartitionedTransactionStore.addPartResult(transactionResult, monthStore(part.getKey()).merge(monthPart), part.getValue());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    transactionResult.setMessage("Error occurred writing");
+                }
+            }
+        } finally {
+            retentionLock.readLock().unlock();
+        }
+        return transactionResult;
+    }
+
+    /**
+     * Rejects dates from months past the retention period, otherwise every month is a
+     * store of the same engine so a new store of it would check the batch the same way
+     *
+     * @param transactions the transactions to check
+     * @return the message rejecting the batch or null if the store can take it
+     */
+    @Override
+    public String validate(Transactions transactions) {
+        int oldestKept = oldestKeptMonth();
+        for (Transaction transaction : transactions.getEntries()) {
+            if (monthOfDate(transaction.getDate()) < oldestKept) {
+                return "Date " + transaction.getDate() + " is past the retention period";
+            }
+        }
+        TransactionStore any = months.isEmpty() ? null : months.firstEntry().getValue();
+        return any == null ? null : any.validate(transactions);
+    }
+
+    /**
+     * Finds transactions matching the supplied query by asking only the months the
+     * query can match, oldest first, until the limit is reached
+     *
+     * @param query the query params to use as a filter
+     * @return the transactions matching the params
+     */
+    @Override
+    public List<Transaction> find(TransactionQuery query) throws Exception {
+        List<Transaction> entries = new ArrayList<>();
+        retentionLock.readLock().lock();
+        try {
+            for (TransactionStore store : candidateMonths(TransactionFilter.of(query)).values()) {
+                if (entries.size() >= query.getLimit()) {
+                    break;
+                }
+                entries.addAll(store.find(withLimit(query, query.getLimit() - entries.size())));
+            }
+        } finally {
+            retentionLock.readLock().unlock();
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the first matches in sort order. Sorted by date the months are walked in
+     * that order and the walk stops once a month fills the limit, undated rows sort
+     * last either way so the undated partition is always asked last. Sorted by amount
+     * every month the query can match gives its own first matches and the first of
+     * those are kept
+     *
+     * @param query the query params to use as a filter
+     * @param sort the order to return the matches in
+     * @return the first transactions matching the params in sort order
+     */
+    @Override
+    public List<Transaction> findSorted(TransactionQuery query, TransactionSort sort) throws Exception {
+        retentionLock.readLock().lock();
+        try {
+            NavigableMap<Integer, TransactionStore> candidates = candidateMonths(TransactionFilter.of(query));
+            if (sort.getField() == TransactionSort.Field.DATE) {
+                List<TransactionStore> ordered = new ArrayList<>();
+                TransactionStore undated = null;
+                for (Map.Entry<Integer, TransactionStore> month : (sort.isDescending() ? candidates.descendingMap() : candidates).entrySet()) {
+                    if (month.getKey() == UNDATED) {
+                        undated = month.getValue();
+                    } else {
+                        ordered.add(month.getValue());
+                    }
+                }
+                if (undated != null) {
+                    ordered.add(undated);
+                }
+                List<Transaction> entries = new ArrayList<>();
+                for (TransactionStore store : ordered) {
+                    if (entries.size() >= query.getLimit()) {
+                        break;
+                    }
+                    entries.addAll(store.findSorted(withLimit(query, query.getLimit() - entries.size()), sort));
+                }
+                return entries;
+            }
+
+            TransactionTopK topK = new TransactionTopK(sort, query.getLimit());
+            for (TransactionStore store : candidates.values()) {
+                topK.offerAll(store.findSorted(query, sort));
+            }
+            return topK.result();
+        } finally {
+            retentionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the months oldest first, the position holds the month in its top bits and
+     * the position inside the month in the rest. A month removed since the position was
+     * handed out is skipped and the visit carries on from the start of the next month
+     *
+     * @param position the position to start at
+     * @param handler the handler to receive each transaction
+     */
+    @Override
+    public void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception {
+        boolean[] stopped = {false};
+        int startMonth = (int) (position >>> MONTH_POSITION_BITS);
+        long inner = position & ((1L << MONTH_POSITION_BITS) - 1);
+        retentionLock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, TransactionStore> month : months.tailMap(startMonth, true).entrySet()) {
+                if (stopped[0]) {
+                    return;
+                }
+                long monthBits = (long) month.getKey() << MONTH_POSITION_BITS;
+                month.getValue().scan(month.getKey() == startMonth ? inner : 0, (row, nextOffset) -> {
+                    stopped[0] = !handler.handle(row, monthBits | nextOffset);
+                    return !stopped[0];
+                });
+            }
+        } finally {
+            retentionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes every month past the retention period out of the store, hands its store to
+     * the removal listeners to stream its rows, then archives or deletes its directory.
+     * Months are taken out while no operation is running so nothing is still reading or
+     * merging into a month once it is out
+     */
+    void applyRetention() {
+        int oldestKept = oldestKeptMonth();
+        List<TransactionStore> expired = new ArrayList<>();
+        List<Integer> expiredMonths = new ArrayList<>();
+        retentionLock.writeLock().lock();
+        try {
+            NavigableMap<Integer, TransactionStore> past = months.headMap(oldestKept, false);
+            expiredMonths.addAll(past.keySet());
+            expired.addAll(past.values());
+            past.clear();
+        } finally {
+            retentionLock.writeLock().unlock();
+        }
+
+        for (int i = 0; i < expired.size(); i++) {
+            for (RemovalListener listener : removalListeners) {
+                try {
+                    listener.removed(expired.get(i));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            expired.get(i).close();
+            File directory = transactionFiles.getMonthDirectory(monthName(expiredMonths.get(i)));
+            try {
+                if (ARCHIVE.equals(retentionAction)) {
+                    archiveDirectory.mkdirs();
+                    Files.move(directory.toPath(), new File(archiveDirectory, directory.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    delete(directory.toPath());
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void addRemovalListener(RemovalListener listener) {
+        removalListeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        retention.shutdown();
+        months.values().forEach(TransactionStore::close);
+    }
+
+    /**
+     * Gets the store of a month, creating it the first time the month is written to
+     *
+     * @param month the partition key of the month
+     * @return the store of the month
+     */
+    private synchronized TransactionStore monthStore(int month) throws Exception {
+        TransactionStore store = months.get(month);
+        if (store == null) {
+            File directory = transactionFiles.getMonthDirectory(monthName(month));
+            directory.mkdirs();
+            store = factory.create(new TransactionFiles(directory));
+            months.put(month, store);
+        }
+        return store;
+    }
+
+    /**
+     * Picks the months a filter can match, an exact date names a single month and a date
+     * range the months it spans, the undated partition can only match a regex date or an
+     * exact date which is not a real date
+     *
+     * @param filter the filter of a query
+     * @return the months to ask in date order
+     */
+    private NavigableMap<Integer, TransactionStore> candidateMonths(TransactionFilter filter) {
+        NavigableMap<Integer, TransactionStore> candidates = months;
+        String exactDate = filter.getExactDate();
+        if (exactDate != null) {
+            int month = monthOfDate(exactDate);
+            candidates = candidates.subMap(month, true, month, true);
+        }
+        if (filter.hasDateRange()) {
+            int from = filter.getFromDay() == Integer.MIN_VALUE ? Integer.MIN_VALUE : monthOfDay(filter.getFromDay());
+            int to = filter.getToDay() == Integer.MAX_VALUE ? UNDATED - 1 : monthOfDay(filter.getToDay());
+            candidates = from > to ? new ConcurrentSkipListMap<>() : candidates.subMap(from, true, to, true);
+        }
+        return candidates;
+    }
+
+    /**
+     * @return int the oldest month kept by the retention policy, every month when there is none
+     */
+    private int oldestKeptMonth() {
+        if (retentionMonths <= 0) {
+            return Integer.MIN_VALUE;
+        }
+        YearMonth oldest = YearMonth.now().minusMonths(retentionMonths - 1);
+        return oldest.getYear() * 12 + oldest.getMonthValue() - 1;
+    }
+
+    /**
+     * Dates which are not real dates, such as 31-02-2020, go to the undated partition even
+     * when they name a real month, as the engines and {@link TransactionSort} treat them as
+     * undated and sort them after every real date
+     *
+     * @param date a dd-MM-yyyy date
+     * @return int the partition key of the month of the date, undated if the date is not a real date
+     */
+    static int monthOfDate(String date) {
+        try {
+            return monthOfDay(TransactionDates.toEpochDay(date));
+        } catch (DateTimeException e) {
+            return UNDATED;
+        }
+    }
+
+    /**
+     * @param name a yyyy-MM month name
+     * @return int the partition key of the month, undated if the name is not a real month
+     */
+    static int monthOf(String name) {
+        try {
+            YearMonth month = YearMonth.parse(name);
+            return month.getYear() * 12 + month.getMonthValue() - 1;
+        } catch (DateTimeException e) {
+            return UNDATED;
+        }
+    }
+
+    /**
+     * @param month the partition key of a month
+     * @return String the yyyy-MM name of the month
+     */
+    static String monthName(int month) {
+        return month == UNDATED ? "undated" : YearMonth.of(month / 12, month % 12 + 1).toString();
+    }
+
+    private static int monthOfDay(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    /**
+     * Copies a query asking for fewer matches
+     */
+    private static TransactionQuery withLimit(TransactionQuery query, int limit) {
+        TransactionQuery copy = new TransactionQuery();
+        copy.setDate(query.getDate());
+        copy.setType(query.getType());
+        copy.setFrom(query.getFrom());
+        copy.setTo(query.getTo());
+        copy.setLimit(limit);
+        return copy;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+}
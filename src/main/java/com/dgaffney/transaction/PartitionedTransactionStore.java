@@ -0,0 +1,201 @@
+package com.dgaffney.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Store engine which splits transactions over a number of partitions, each an
+ * independent store with its own files and its own lock. A batch is split by
+ * partition and the parts are merged in parallel, and queries fan out to the
+ * partitions in parallel, so writers to different partitions never wait on
+ * each other and throughput grows with the number of partitions and cores
+ */
+public class PartitionedTransactionStore implements TransactionStore {
+
+    // constant for the bits of a scan position holding the position inside a partition
+    public static final int PARTITION_POSITION_BITS = 48;
+
+    List<TransactionStore> partitions;
+
+    TransactionPartitioner partitioner;
+
+    ExecutorService executor;
+
+    public PartitionedTransactionStore(List<TransactionStore> partitions, TransactionPartitioner partitioner) {
+        this.partitions = partitions;
+        this.partitioner = partitioner;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(partitions.size(), runnable -> {
+            Thread thread = new Thread(runnable, "transaction-partition-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Splits the transactions by partition and merges each part into its partition
+     * in parallel. The parts share the transaction objects of the batch so the
+     * existed flag set by each partition is seen on the batch. When a partition fails
+     * the transactions of the partitions which were stored are handed back on the result
+     *
+     * @param transactions the transactions to merge
+     * @return the transaction result object summed over the partitions
+     */
+    @Override
+    public TransactionResult merge(Transactions transactions) {
+        List<List<Transaction>> parts = new ArrayList<>(partitions.size());
+        for (int partition = 0; partition < partitions.size(); partition++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Transaction transaction : transactions.getEntries()) {
+            parts.get(partitioner.partitionOf(transaction.getDate(), transaction.getType(), partitions.size())).add(transaction);
+        }
+
+        List<Future<TransactionResult>> results = new ArrayList<>();
+        List<List<Transaction>> merged = new ArrayList<>();
+        for (int partition = 0; partition < partitions.size(); partition++) {
+            if (!parts.get(partition).isEmpty()) {
+                Transactions part = new Transactions();
+                part.setEntries(parts.get(partition));
+                TransactionStore store = partitions.get(partition);
+                results.add(executor.submit(() -> store.merge(part)));
+                merged.add(parts.get(partition));
+            }
+        }
+
+        TransactionResult transactionResult = new TransactionResult(0, 0, results.isEmpty() ? "No operations occurred" : TransactionResult.STORED_MESSAGE);
+        for (int part = 0; part < results.size(); part++) {
+            try {
+                addPartResult(transactionResult, results.get(part).get(), merged.get(part));
+            } catch (Exception e) {
+                e.printStackTrace();
+                transactionResult.setMessage("Error occurred writing");
+            }
+        }
+        return transactionResult;
+    }
+
+    /**
+     * Adds the result of merging part of a batch into the result of the whole batch,
+     * the message of the first part which failed is the message of the batch. The
+     * transactions the part stored are added to the stored entries of the batch
+     *
+     * @param transactionResult the result of the whole batch
+     * @param partResult the result of the part
+     * @param part the transactions of the part
+     */
+    static void addPartResult(TransactionResult transactionResult, TransactionResult partResult, List<Transaction> part) {
+        transactionResult.setCreated(transactionResult.getCreated() + partResult.getCreated());
+        transactionResult.setUpdated(transactionResult.getUpdated() + partResult.getUpdated());
+        transactionResult.getStoredEntries().addAll(TransactionResult.STORED_MESSAGE.equals(partResult.getMessage()) ? part : partResult.getStoredEntries());
+        if (!TransactionResult.STORED_MESSAGE.equals(partResult.getMessage())
+            && TransactionResult.STORED_MESSAGE.equals(transactionResult.getMessage())) {
+            transactionResult.setMessage(partResult.getMessage());
+        }
+    }
+
+    /**
+     * Every partition is a store of the same engine so any of them can check the batch
+     *
+     * @param transactions the transactions to check
+     * @return the message rejecting the batch or null if the store can take it
+     */
+    @Override
+    public String validate(Transactions transactions) {
+        return partitions.get(0).validate(transactions);
+    }
+
+    /**
+     * Finds transactions matching the supplied query by asking every partition which
+     * can hold matches in parallel, the matches are returned partition by partition
+     *
+     * @param query the query params to use as a filter
+     * @return the transactions matching the params
+     */
+    @Override
+    public List<Transaction> find(TransactionQuery query) throws Exception {
+        int only = partitioner.partitionOf(TransactionFilter.of(query), partitions.size());
+        if (only >= 0) {
+            return partitions.get(only).find(query);
+        }
+
+        List<Future<List<Transaction>>> results = new ArrayList<>(partitions.size());
+        for (TransactionStore store : partitions) {
+            results.add(executor.submit(() -> store.find(query)));
+        }
+        List<Transaction> entries = new ArrayList<>();
+        for (Future<List<Transaction>> result : results) {
+            for (Transaction transaction : result.get()) {
+                if (entries.size() >= query.getLimit()) {
+                    break;
+                }
+                entries.add(transaction);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the first matches in sort order by asking every partition which can hold
+     * matches for its own first matches in parallel and keeping the first of those
+     *
+     * @param query the query params to use as a filter
+     * @param sort the order to return the matches in
+     * @return the first transactions matching the params in sort order
+     */
+    @Override
+    public List<Transaction> findSorted(TransactionQuery query, TransactionSort sort) throws Exception {
+        int only = partitioner.partitionOf(TransactionFilter.of(query), partitions.size());
+        if (only >= 0) {
+            return partitions.get(only).findSorted(query, sort);
+        }
+
+        List<Future<List<Transaction>>> results = new ArrayList<>(partitions.size());
+        for (TransactionStore store : partitions) {
+            results.add(executor.submit(() -> store.findSorted(query, sort)));
+        }
+        TransactionTopK topK = new TransactionTopK(sort, query.getLimit());
+        for (Future<List<Transaction>> result : results) {
+            topK.offerAll(result.get());
+        }
+        return topK.result();
+    }
+
+    /**
+     * Visits the partitions one after another, the position holds the partition
+     * in its top bits and the position inside the partition in the rest
+     *
+     * @param position the position to start at
+     * @param handler the handler to receive each transaction
+     */
+    @Override
+    public void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception {
+        boolean[] stopped = {false};
+        long inner = position & ((1L << PARTITION_POSITION_BITS) - 1);
+        for (int partition = (int) (position >>> PARTITION_POSITION_BITS); partition < partitions.size() && !stopped[0]; partition++) {
+            long partitionBits = (long) partition << PARTITION_POSITION_BITS;
+            partitions.get(partition).scan(inner, (row, nextOffset) -> {
+                stopped[0] = !handler.handle(row, partitionBits | nextOffset);
+                return !stopped[0];
+            });
+            inner = 0;
+        }
+    }
+
+    @Override
+    public void addRemovalListener(RemovalListener listener) {
+        partitions.forEach(partition -> partition.addRemovalListener(listener));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        partitions.forEach(TransactionStore::close);
+    }
+
+}
@@ -1,10 +1,14 @@
 package com.dgaffney.transaction;
 
+import java.util.Objects;
+
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import org.springframework.lang.Nullable;
 
 public class Transaction {
@@ -18,12 +22,14 @@ public class Transaction {
     @NotEmpty
     @NotNull
     @NotBlank
+    @Pattern(regexp = "^[^\\r\\n]*$")
     private String type;
 
-    @NotEmpty
-    @NotNull
-    @NotBlank
-    @Pattern(regexp = "^-?\\d+\\.\\d{2}$")
+    // the amount in cents, summed exactly when transactions are merged
+    private long cents;
+
+    // the amount as text, either as bound from the client or formatted from the cents
+    // the first time it is needed, null while a merge has left it out of date
     private String amount;
 
     @Nullable
@@ -36,13 +42,25 @@ public class Transaction {
     public Transaction(String date, String type, String amount) {
         this.date = date;
         this.type = type;
-        this.amount = amount;
+        this.setAmount(amount);
     }
 
+    public Transaction(String date, String type, long cents) {
+        this.date = date;
+        this.type = type;
+        this.cents = cents;
+    }
 
+    /**
+     * Sums the amount of the supplied transaction into this transaction, the
+     * text form of the amount is only formatted again when it is next needed
+     *
+     * @param transaction the transaction to add to this transaction
+     * @throws ArithmeticException if the sum does not fit in a long of cents, this transaction is left as it was
+     */
     public void sumTransactions(Transaction transaction){
-        float sum = Float.parseFloat(this.amount) + Float.parseFloat(transaction.getAmount());
-        this.amount = String.format("%.2f", sum);
+        this.cents = Math.addExact(this.cents, transaction.cents);
+        this.amount = null;
     }
 
     /**
@@ -51,7 +69,9 @@ public class Transaction {
      * @return a csv representation of the transaction object
      */
     public String toCsv(){
-        return String.format("%s,%s,%s", this.getDate(), this.getType(), this.getAmount());
+        StringBuilder csv = new StringBuilder(this.getDate().length() + this.getType().length() + Amounts.MAX_ENCODED_LENGTH + 2);
+        csv.append(this.getDate()).append(',').append(this.getType()).append(',');
+        return Amounts.appendTo(csv, this.cents).toString();
     }
 
 
@@ -60,8 +80,24 @@ public class Transaction {
      */
     @Override
     public boolean equals(Object obj) {
-        return this.getDate().equals(((Transaction)obj).getDate()) &&
-               this.getType().equals(((Transaction)obj).getType());
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Transaction)) {
+            return false;
+        }
+        Transaction other = (Transaction) obj;
+        return Objects.equals(this.getDate(), other.getDate()) &&
+               Objects.equals(this.getType(), other.getType());
+    }
+
+    /**
+     * Hashes the date and type attributes only so the hash agrees with equals,
+     * the amount can change while a transaction is held in a hash based collection
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.getDate(), this.getType());
     }
 
     /**
@@ -95,15 +131,47 @@ public class Transaction {
     /**
      * @return String return the amount
      */
+    @NotEmpty
+    @NotNull
+    @NotBlank
+    @Pattern(regexp = "^-?\\d+\\.\\d{2}$")
     public String getAmount() {
+        if (amount == null) {
+            amount = Amounts.format(cents);
+        }
         return amount;
     }
 
     /**
+     * Sets the amount, text which is not a valid amount is kept as is
+     * so validation can reject it and the cents are left at zero
+     *
      * @param amount the amount to set
      */
     public void setAmount(String amount) {
         this.amount = amount;
+        try {
+            this.cents = Amounts.parse(amount);
+        } catch (NumberFormatException e) {
+            this.cents = 0;
+        }
+    }
+
+    /**
+     * @return long return the amount in cents
+     */
+    @JsonIgnore
+    public long getCents() {
+        return cents;
+    }
+
+    /**
+     * @param cents the amount in cents to set
+     */
+    @JsonIgnore
+    public void setCents(long cents) {
+        this.cents = cents;
+        this.amount = null;
     }
 
     /**
@@ -0,0 +1,55 @@
+package com.dgaffney.transaction;
+
+import java.util.Locale;
+
+/**
+ * The date buckets transaction totals can be grouped by, each bucket is a
+ * suffix of the dd-MM-yyyy date so no date needs parsing to be bucketed
+ */
+public enum TransactionBucket {
+
+    DAY(0),     // dd-MM-yyyy
+    MONTH(3),   // MM-yyyy
+    YEAR(6);    // yyyy
+
+    private final int start;
+
+    TransactionBucket(int start) {
+        this.start = start;
+    }
+
+    /**
+     * Parses a bucket name ignoring case
+     *
+     * @param name the name of the bucket
+     * @return the bucket
+     * @throws IllegalArgumentException if there is no bucket with the name
+     */
+    public static TransactionBucket of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param date the dd-MM-yyyy date of a transaction
+     * @return String the period of this bucket the date falls in
+     */
+    String periodOf(String date) {
+        return date.length() > start ? date.substring(start) : date;
+    }
+
+    /**
+     * Reverses the fields of a period so periods sort in date order
+     *
+     * @param period the period to create the sort key for
+     * @return the sort key of the period
+     */
+    static String sortKey(String period) {
+        String[] fields = period.split("-");
+        StringBuilder key = new StringBuilder(period.length());
+        for (int i = fields.length - 1; i >= 0; i--) {
+            key.append(fields[i]);
+        }
+        return key.toString();
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.dgaffney.transaction;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Binary image of the transaction snapshot which loads without parsing csv. The
+ * file starts with a header holding a magic number, the format version, the length
+ * and modified time of the snapshot it is an image of and the number of rows,
+ * followed by each row as its date, its type and its amount in cents. Text is held
+ * as its utf-8 byte length followed by its bytes so a type of any length fits. The header
+ * is only filled in once the snapshot it describes is in place, so an image which
+ * doesn't match the snapshot on disk is never loaded
+ */
+public class TransactionCheckpoint {
+
+    // constant for the magic number at the start of every checkpoint, TXCP in ascii
+    public static final int MAGIC = 0x54584350;
+
+    // constant for the version of the checkpoint format, checkpoints of an earlier version are rewritten from the csv
+    public static final int VERSION = 2;
+
+    // constant for the offset of the snapshot length in the header
+    private static final int SNAPSHOT_OFFSET = 8;
+
+    private TransactionCheckpoint() {
+    }
+
+    /**
+     * Reads the rows of a checkpoint if it is an image of the snapshot as it is on disk,
+     * each row is handed over as it is read so the rows are never held all at once. A
+     * checkpoint found damaged part way has handed over the leading rows of the snapshot
+     *
+     * @param checkpoint the checkpoint file
+     * @param snapshot the snapshot the checkpoint has to match
+     * @param consumer the consumer to receive each row in snapshot order
+     * @return false if there is no checkpoint matching the snapshot
+     */
+    static boolean read(File checkpoint, File snapshot, Consumer<Transaction> consumer) throws IOException {
+        if (!checkpoint.exists()) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpoint), TransactionCsvCodec.BUFFER_SIZE))) {
+            if (!matches(input, snapshot)) {
+                return false;
+            }
+            int count = input.readInt();
+            for (int row = 0; row < count; row++) {
+                consumer.accept(new Transaction(readText(input), readText(input), input.readLong()));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param checkpoint the checkpoint file
+     * @param snapshot the snapshot the checkpoint has to match
+     * @return true if the checkpoint is an image of the snapshot as it is on disk
+     */
+    static boolean isCurrent(File checkpoint, File snapshot) throws IOException {
+        if (!checkpoint.exists()) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(checkpoint))) {
+            return matches(input, snapshot);
+        }
+    }
+
+    private static boolean matches(DataInputStream input, File snapshot) throws IOException {
+        return input.readInt() == MAGIC && input.readInt() == VERSION
+               && input.readLong() == snapshot.length() && input.readLong() == snapshot.lastModified();
+    }
+
+    private static String readText(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid text length " + length + " in checkpoint");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the rows of a new snapshot into a checkpoint copy file as they are written
+     * to the snapshot, once the snapshot is in place {@link #commit} stamps the header
+     * and moves the copy over the checkpoint
+     */
+    static class Writer implements Closeable {
+
+        private final File copyFile;
+        private final DataOutputStream output;
+        private int count;
+
+        Writer(File copyFile) throws IOException {
+            this.copyFile = copyFile;
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(copyFile), TransactionCsvCodec.BUFFER_SIZE));
+            // the snapshot length and modified time are unknown until the snapshot is in place
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(-1);
+            output.writeLong(-1);
+            output.writeInt(0);
+        }
+
+        /**
+         * @param row the next row of the snapshot
+         */
+        void write(Transaction row) throws IOException {
+            writeText(row.getDate());
+            writeText(row.getType());
+            output.writeLong(row.getCents());
+            count++;
+        }
+
+        private void writeText(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        /**
+         * Stamps the header with the snapshot now in place and the row count, then
+         * forces the copy to disk and moves it over the checkpoint
+         *
+         * @param snapshot the snapshot the rows were written to
+         * @param checkpoint the checkpoint file to replace
+         * @param transactionFiles the transaction files used to replace the checkpoint
+         */
+        void commit(File snapshot, File checkpoint, TransactionFiles transactionFiles) throws IOException {
+            output.close();
+            try (FileChannel channel = FileChannel.open(copyFile.toPath(), StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(2 * Long.BYTES + Integer.BYTES);
+                header.putLong(snapshot.length()).putLong(snapshot.lastModified()).putInt(count).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, SNAPSHOT_OFFSET + header.position());
+                }
+                channel.force(true);
+            }
+            if (!transactionFiles.replaceFile(copyFile, checkpoint)) {
+                throw new IOException("Error occurred replacing the checkpoint");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+
+}
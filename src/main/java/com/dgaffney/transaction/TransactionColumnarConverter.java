@@ -0,0 +1,109 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Command line tool migrating transaction files between the csv format and the
+ * columnar format of {@link ColumnarTransactionStore}
+ *
+ * <pre>
+ * import &lt;csv file&gt; &lt;columnar directory&gt;   merges a csv file into the columnar files
+ * export &lt;columnar directory&gt; &lt;csv file&gt;   writes the columnar files out as a csv file
+ * </pre>
+ */
+public class TransactionColumnarConverter {
+
+    // constant for the number of rows merged into the columnar files at a time
+    public static final int IMPORT_BATCH_SIZE = 10000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("usage: import <csv file> <columnar directory> | export <columnar directory> <csv file>");
+            System.exit(1);
+        }
+        switch (args[0]) {
+            case "import":
+                importCsv(new File(args[1]), new File(args[2]));
+                break;
+            case "export":
+                exportCsv(new File(args[1]), new File(args[2]));
+                break;
+            default:
+                System.err.println("Unknown command: " + args[0]);
+                System.exit(1);
+        }
+    }
+
+    /**
+     * Merges every row of a csv file into the columnar files held in a directory
+     *
+     * @param csvFile the csv file to read
+     * @param directory the directory holding the columnar files
+     */
+    static void importCsv(File csvFile, File directory) throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        try {
+            AtomicInteger created = new AtomicInteger();
+            AtomicInteger updated = new AtomicInteger();
+            List<Transaction> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+            TransactionCsvCodec.read(csvFile, (row, nextOffset) -> {
+                batch.add(row);
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    mergeBatch(store, batch, created, updated);
+                }
+                return true;
+            });
+            mergeBatch(store, batch, created, updated);
+            System.out.println("Imported " + csvFile + ": " + created + " created, " + updated + " updated");
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Writes every record of the columnar files held in a directory out as a csv file
+     *
+     * @param directory the directory holding the columnar files
+     * @param csvFile the csv file to write
+     */
+    static void exportCsv(File directory, File csvFile) throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        try (FileChannel channel = FileChannel.open(csvFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             TransactionCsvCodec.Encoder encoder = new TransactionCsvCodec.Encoder(channel)) {
+            AtomicInteger exported = new AtomicInteger();
+            store.forEach((row, nextRecord) -> {
+                try {
+                    encoder.encode(row);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                exported.incrementAndGet();
+                return true;
+            });
+            System.out.println("Exported " + exported + " rows to " + csvFile);
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void mergeBatch(ColumnarTransactionStore store, List<Transaction> batch, AtomicInteger created, AtomicInteger updated) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Transactions transactions = new Transactions();
+        transactions.setEntries(batch);
+        TransactionResult result = store.merge(transactions);
+        if (result.getCreated() + result.getUpdated() != batch.size()) {
+            throw new IllegalStateException(result.getMessage());
+        }
+        created.addAndGet(result.getCreated());
+        updated.addAndGet(result.getUpdated());
+        batch.clear();
+    }
+
+}
@@ -1,31 +1,138 @@
 package com.dgaffney.transaction;
 
-import javax.validation.Valid;
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.validation.BindingResult;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class TransactionController {
 
+    // constant for the seconds a client is asked to wait before retrying a rejected request
+    public static final String RETRY_AFTER_SECONDS = "1";
+
     @Autowired
     TransactionService transactionService;
 
+    @Autowired
+    @Qualifier("transactionReadExecutor")
+    Executor readExecutor;
+
+    @Autowired
+    @Qualifier("transactionWriteExecutor")
+    Executor writeExecutor;
+
+    /**
+     * Persists a batch, the entries are checked as the body is parsed by
+     * {@link TransactionsDeserializer} and a batch with an invalid entry is rejected whole.
+     * The write pool only holds a thread until the batch is queued for the group commit
+     * writer, the response completes when the writer has merged it. A batch finding the
+     * queue of the writer full is rejected and answered with a 503 like a full pool
+     */
     @PostMapping(value = "/transaction")
-    public TransactionResult persistTransactions(@Valid @RequestBody Transactions transactions, BindingResult bindingResult) {
-        if(bindingResult.hasErrors()){
-            return new TransactionResult(0, 0, bindingResult.getFieldError().getDefaultMessage());
+    public CompletableFuture<TransactionResult> persistTransactions(@RequestBody Transactions transactions) {
+        if(transactions.getInvalidMessage() != null){
+            return CompletableFuture.completedFuture(new TransactionResult(0, 0, transactions.getInvalidMessage()));
         }
-        return transactionService.persistTransactions(transactions);
+        return submit(writeExecutor, () -> transactionService.persistTransactionsAsync(transactions)).thenCompose(merged -> merged);
     }
 
+    /**
+     * Gets transactions tagged with the store generation and the query, a client sending
+     * back the tag of a result which hasn't changed gets a 304 without the store being read
+     */
     @GetMapping(value = "/transaction")
-    public Transactions getMethodName(TransactionQuery transactionQuery) throws Exception {
-        return transactionService.getTransactions(transactionQuery);
+    public CompletableFuture<ResponseEntity<Transactions>> getMethodName(TransactionQuery transactionQuery,
+                                                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        // tag before reading so a merge landing during the read is never hidden behind the tag
+        String tag = transactionService.getTransactionsTag(transactionQuery);
+        if (TransactionQueryCache.matches(ifNoneMatch, tag)) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build());
+        }
+        return submit(readExecutor, () -> ResponseEntity.ok().eTag(tag).body(transactionService.getTransactions(transactionQuery)));
+    }
+
+    @PostMapping(value = "/transaction/bulk", consumes = TransactionFormat.NDJSON_VALUE)
+    public CompletableFuture<TransactionResult> ingestNdjson(InputStream body) {
+        return submit(writeExecutor, () -> transactionService.ingestTransactions(body, TransactionFormat.NDJSON));
+    }
+
+    @PostMapping(value = "/transaction/bulk", consumes = TransactionFormat.CSV_VALUE)
+    public CompletableFuture<TransactionResult> ingestCsv(InputStream body) {
+        return submit(writeExecutor, () -> transactionService.ingestTransactions(body, TransactionFormat.CSV));
+    }
+
+    @GetMapping(value = "/transaction", produces = TransactionFormat.NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamNdjson(TransactionQuery transactionQuery) {
+        return stream(transactionQuery, TransactionFormat.NDJSON);
+    }
+
+    @GetMapping(value = "/transaction", produces = TransactionFormat.CSV_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamCsv(TransactionQuery transactionQuery) {
+        return stream(transactionQuery, TransactionFormat.CSV);
+    }
+
+    private ResponseEntity<StreamingResponseBody> stream(TransactionQuery transactionQuery, TransactionFormat format) {
+        return ResponseEntity.ok()
+                             .contentType(MediaType.parseMediaType(format.getMediaType()))
+                             .body(transactionService.streamTransactions(transactionQuery, format));
+    }
+
+    @GetMapping(value = "/transaction/summary")
+    public TransactionSummary getSummary(TransactionSummaryQuery summaryQuery) {
+        return transactionService.getSummary(summaryQuery);
+    }
+
+    @ExceptionHandler({DateTimeException.class, IllegalArgumentException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public TransactionResult invalidQuery(RuntimeException e) {
+        return new TransactionResult(0, 0, e.getMessage());
+    }
+
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<TransactionResult> overloaded(RejectedExecutionException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                             .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                             .body(new TransactionResult(0, 0, "Too many requests queued, retry later"));
+    }
+
+    /**
+     * Runs store work on one of the bounded executors, the request thread is released
+     * as soon as the work is queued. A full queue rejects the work straight away which
+     * is answered with a 503, and a failure of the work is handled as if it had been
+     * thrown by the handler
+     *
+     * @param executor the executor to run the work on
+     * @param task the work to run
+     * @return the future completed with the result of the work
+     */
+    private <T> CompletableFuture<T> submit(Executor executor, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
     }
 
 }
\ No newline at end of file
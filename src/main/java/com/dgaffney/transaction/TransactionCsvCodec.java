@@ -0,0 +1,462 @@
+package com.dgaffney.transaction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes the date,type,amount rows of the transaction files. Rows are read
+ * through a file channel into a reusable buffer and decoded straight from byte offsets,
+ * and written by encoding into a reusable buffer which only reaches the channel when
+ * it fills or is flushed at the end of a batch
+ */
+public final class TransactionCsvCodec {
+
+    // constant for the size of the read and write buffers
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private TransactionCsvCodec() {
+    }
+
+    /**
+     * Handles rows as they are decoded
+     */
+    public interface RowHandler {
+
+        /**
+         * Handles a decoded row
+         *
+         * @param row the decoded row
+         * @param nextOffset the offset in the file where the next row starts
+         * @return true to keep reading, false to stop
+         */
+        boolean handle(Transaction row, long nextOffset);
+    }
+
+    /**
+     * Handles the raw lines of a stream as they are read
+     */
+    public interface LineHandler {
+
+        /**
+         * Handles a line, the bytes are only valid until the handler returns
+         *
+         * @param bytes the bytes holding the line
+         * @param start the offset of the first byte of the line
+         * @param end the offset after the last byte of the line, without the newline
+         * @return true to keep reading, false to stop
+         */
+        boolean handle(byte[] bytes, int start, int end) throws IOException;
+    }
+
+    /**
+     * Reads every row of a file, rows which can't be decoded are skipped
+     *
+     * @param file the file to read
+     * @param handler the handler to receive each row
+     * @return the offset the read stopped at
+     */
+    public static long read(File file, RowHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return read(channel, 0, channel.size(), handler);
+        }
+    }
+
+    /**
+     * Reads every row of a file by splitting it into chunks of roughly the supplied size,
+     * each moved on to the next row start, and decoding the chunks in parallel on the
+     * common fork join pool. Decoded chunks are handed to the consumer in order so the
+     * rows arrive in the order they are written, and only as many chunks as the pool
+     * decodes at once are held, rows which can't be decoded are skipped
+     *
+     * @param file the file to read
+     * @param chunkBytes the bytes each chunk should hold
+     * @param consumer the consumer to receive each row, always called on the calling thread
+     */
+    public static void readParallel(File file, long chunkBytes, Consumer<Transaction> consumer) throws IOException {
+        readParallel(file, Long.MAX_VALUE, chunkBytes, consumer);
+    }
+
+    /**
+     * Reads the rows of a file up to an offset in parallel chunks, as {@link #readParallel(File, long, Consumer)}
+     * does for the whole file
+     *
+     * @param file the file to read
+     * @param length the bytes from the start of the file to read, which must end a row or reach past the end of the file
+     * @param chunkBytes the bytes each chunk should hold
+     * @param consumer the consumer to receive each row, always called on the calling thread
+     */
+    public static void readParallel(File file, long length, long chunkBytes, Consumer<Transaction> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            List<Long> starts = chunkStarts(channel, Math.min(length, channel.size()), chunkBytes);
+            int chunks = starts.size() - 1;
+            int window = Math.max(1, ForkJoinPool.getCommonPoolParallelism());
+
+            // positional reads of a file channel are safe from many threads at once
+            Deque<CompletableFuture<List<Transaction>>> decoding = new ArrayDeque<>();
+            int next = 0;
+            while (next < chunks || !decoding.isEmpty()) {
+                while (next < chunks && decoding.size() < window) {
+                    long start = starts.get(next);
+                    long end = starts.get(next + 1);
+                    decoding.add(CompletableFuture.supplyAsync(() -> readChunk(channel, start, end)));
+                    next++;
+                }
+                List<Transaction> rows;
+                try {
+                    rows = decoding.poll().join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof UncheckedIOException) {
+                        throw ((UncheckedIOException) e.getCause()).getCause();
+                    }
+                    throw e;
+                }
+                rows.forEach(consumer);
+            }
+        }
+    }
+
+    /**
+     * Splits a channel into chunks of roughly the supplied size, each starting at a row start
+     *
+     * @param channel the channel to split
+     * @param chunkBytes the bytes each chunk should hold
+     * @return the offset each chunk starts at followed by the size of the channel, chunk n
+     *         runs from offset n up to offset n + 1
+     */
+    public static List<Long> chunkStarts(FileChannel channel, long chunkBytes) throws IOException {
+        return chunkStarts(channel, channel.size(), chunkBytes);
+    }
+
+    /**
+     * Splits the bytes of a channel up to an offset into chunks of roughly the supplied size
+     *
+     * @param channel the channel to split
+     * @param size the offset to stop at, which must be the start of a row or the size of the channel
+     * @param chunkBytes the bytes each chunk should hold
+     * @return the offset each chunk starts at followed by the offset stopped at
+     */
+    static List<Long> chunkStarts(FileChannel channel, long size, long chunkBytes) throws IOException {
+        List<Long> starts = new ArrayList<>();
+        for (long start = 0; start < size; start = rowStart(channel, Math.min(start + Math.max(chunkBytes, 1), size))) {
+            starts.add(start);
+        }
+        starts.add(size);
+        return starts;
+    }
+
+    private static List<Transaction> readChunk(FileChannel channel, long start, long end) {
+        List<Transaction> rows = new ArrayList<>();
+        try {
+            read(channel, start, end, (row, nextOffset) -> rows.add(row));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the rows held between two offsets of a channel, the start offset must be the
+     * start of a row and rows are read until the end offset or until the handler stops.
+     * Rows which can't be decoded, such as a row torn by a crash during an append, are skipped
+     *
+     * @param channel the channel to read from
+     * @param start the offset of the first row to read
+     * @param end the offset to stop reading at
+     * @param handler the handler to receive each row
+     * @return the offset the read stopped at
+     */
+    public static long read(FileChannel channel, long start, long end, RowHandler handler) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        // the offset in the file of bytes[0]
+        long bufferOffset = start;
+        long position = start;
+
+        while (position < end) {
+            int limit = (int) Math.min(buffer.capacity(), end - bufferOffset);
+            buffer.limit(limit);
+            int read = channel.read(buffer, bufferOffset + buffer.position());
+            boolean endOfInput = read < 0 || bufferOffset + buffer.position() >= end;
+            int filled = buffer.position();
+
+            // decode every complete row in the buffer
+            int rowStart = 0;
+            for (int newline = indexOf(bytes, (byte) '\n', rowStart, filled); newline >= 0; newline = indexOf(bytes, (byte) '\n', rowStart, filled)) {
+                position = bufferOffset + newline + 1;
+                Transaction row = decode(bytes, rowStart, newline);
+                rowStart = newline + 1;
+                if (row != null && !handler.handle(row, position)) {
+                    return position;
+                }
+            }
+
+            if (endOfInput) {
+                // a last row without a newline
+                if (rowStart < filled) {
+                    position = bufferOffset + filled;
+                    Transaction row = decode(bytes, rowStart, filled);
+                    if (row != null) {
+                        handler.handle(row, position);
+                    }
+                }
+                return position;
+            }
+
+            // move the partial row to the front of the buffer, growing it if one row fills it
+            int partial = filled - rowStart;
+            if (partial == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            } else {
+                System.arraycopy(bytes, rowStart, bytes, 0, partial);
+            }
+            bufferOffset += rowStart;
+            buffer.clear();
+            buffer.position(partial);
+        }
+        return position;
+    }
+
+    /**
+     * Reads the lines of a stream such as a request body from start to end, each line
+     * is handed over as a range of the read buffer so nothing is allocated per line and
+     * only the longest line has to fit in memory. A trailing carriage return is dropped
+     *
+     * @param channel the channel to read from
+     * @param handler the handler to receive each line
+     */
+    public static void readLines(ReadableByteChannel channel, LineHandler handler) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        boolean endOfInput = false;
+
+        while (!endOfInput) {
+            endOfInput = channel.read(buffer) < 0;
+            int filled = buffer.position();
+
+            // hand over every complete line in the buffer
+            int lineStart = 0;
+            for (int newline = indexOf(bytes, (byte) '\n', lineStart, filled); newline >= 0; newline = indexOf(bytes, (byte) '\n', lineStart, filled)) {
+                int end = newline > lineStart && bytes[newline - 1] == '\r' ? newline - 1 : newline;
+                if (!handler.handle(bytes, lineStart, end)) {
+                    return;
+                }
+                lineStart = newline + 1;
+            }
+
+            if (endOfInput) {
+                // a last line without a newline
+                if (lineStart < filled) {
+                    int end = bytes[filled - 1] == '\r' ? filled - 1 : filled;
+                    handler.handle(bytes, lineStart, end);
+                }
+                return;
+            }
+
+            // move the partial line to the front of the buffer, growing it if one line fills it
+            int partial = filled - lineStart;
+            if (partial == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            } else {
+                System.arraycopy(bytes, lineStart, bytes, 0, partial);
+            }
+            buffer.clear();
+            buffer.position(partial);
+        }
+    }
+
+    /**
+     * Finds the start of the row holding an offset or the start of the next row
+     * if the offset is inside one, so a read can resume from any offset
+     *
+     * @param channel the channel to search
+     * @param offset the offset to start from
+     * @return the offset of the first row start at or after the offset
+     */
+    public static long rowStart(FileChannel channel, long offset) throws IOException {
+        if (offset <= 0) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        // a row starts at the offset if the byte before it ends a row
+        long position = offset - 1;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return position;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Decodes the row held between two offsets of a byte array. The date never holds a
+     * comma and the amount is after the last one, so a type may hold commas of its own
+     *
+     * @param bytes the bytes holding the row
+     * @param start the offset of the first byte of the row
+     * @param end the offset of the newline ending the row or the end of the bytes
+     * @return the transaction or null if the bytes are not a complete row
+     */
+    static Transaction decode(byte[] bytes, int start, int end) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        int firstComma = indexOf(bytes, (byte) ',', start, end);
+        int secondComma = firstComma < 0 ? -1 : lastIndexOf(bytes, (byte) ',', firstComma + 1, end);
+        if (secondComma < 0) {
+            return null;
+        }
+        long cents;
+        try {
+            cents = Amounts.parse(bytes, secondComma + 1, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new Transaction(new String(bytes, start, firstComma - start, StandardCharsets.ISO_8859_1),
+                               new String(bytes, firstComma + 1, secondComma - firstComma - 1, StandardCharsets.UTF_8),
+                               cents);
+    }
+
+    /**
+     * Decodes a row held in a string, the amount is after the last comma as for rows held in bytes
+     *
+     * @param line the row
+     * @return the transaction or null if the line is not a complete row
+     */
+    static Transaction decode(String line) {
+        int firstComma = line.indexOf(',');
+        int secondComma = firstComma < 0 ? -1 : line.lastIndexOf(',');
+        if (secondComma <= firstComma) {
+            return null;
+        }
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        long cents;
+        try {
+            cents = Amounts.parse(line, secondComma + 1, end);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new Transaction(line.substring(0, firstComma), line.substring(firstComma + 1, secondComma), cents);
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte value, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes rows into a reusable buffer which is written to the channel when
+     * it fills or is flushed, closing the encoder flushes it but leaves the
+     * channel open
+     */
+    public static class Encoder implements Closeable {
+
+        private final WritableByteChannel channel;
+        private byte[] bytes = new byte[BUFFER_SIZE];
+        private int position;
+
+        public Encoder(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Encodes a transaction as a row
+         *
+         * @param transaction the transaction to encode
+         */
+        public void encode(Transaction transaction) throws IOException {
+            String date = transaction.getDate();
+            String type = transaction.getType();
+            // worst case of three bytes per char, two commas, the amount and the newline
+            int maxLength = (date.length() + type.length()) * 3 + Amounts.MAX_ENCODED_LENGTH + 3;
+            if (bytes.length - position < maxLength) {
+                flush();
+                if (bytes.length < maxLength) {
+                    bytes = new byte[maxLength];
+                }
+            }
+            position = encodeText(date, position);
+            bytes[position++] = ',';
+            position = encodeText(type, position);
+            bytes[position++] = ',';
+            position = Amounts.encode(transaction.getCents(), bytes, position);
+            bytes[position++] = '\n';
+        }
+
+        /**
+         * Writes everything encoded so far to the channel
+         */
+        public void flush() throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, position);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            position = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * Encodes text as utf-8, ascii chars are copied across directly
+         * and only text holding other chars is encoded through a charset
+         */
+        private int encodeText(String text, int offset) {
+            int length = text.length();
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+                    System.arraycopy(encoded, 0, bytes, offset, encoded.length);
+                    return offset + encoded.length;
+                }
+                bytes[offset + i] = (byte) c;
+            }
+            return offset + length;
+        }
+    }
+
+}
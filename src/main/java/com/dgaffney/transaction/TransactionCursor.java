@@ -0,0 +1,44 @@
+package com.dgaffney.transaction;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Encodes the store position a streamed scan stopped at as an opaque url safe
+ * cursor, so clients page through results by handing the cursor back without
+ * depending on whether it is a byte offset, a row number or a record number
+ */
+public final class TransactionCursor {
+
+    private TransactionCursor() {
+    }
+
+    /**
+     * @param position the store position to encode
+     * @return the cursor for the position
+     */
+    public static String encode(long position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(ByteBuffer.allocate(Long.BYTES).putLong(position).array());
+    }
+
+    /**
+     * @param cursor the cursor to decode, null or empty for the start of the store
+     * @return the store position held by the cursor
+     * @throws IllegalArgumentException if the cursor was not created by {@link #encode(long)}
+     */
+    public static long decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0;
+        }
+        byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+        if (bytes.length != Long.BYTES) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        long position = ByteBuffer.wrap(bytes).getLong();
+        if (position < 0) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return position;
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.dgaffney.transaction;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
+/**
+ * Converts the dd-MM-yyyy dates transactions are stored with to and from epoch days,
+ * the number of days since 01-01-1970, so dates can be stored as ints and compared
+ */
+public final class TransactionDates {
+
+    private TransactionDates() {
+    }
+
+    /**
+     * Parses a dd-MM-yyyy date into epoch days
+     *
+     * @param date the date to parse
+     * @return the number of days since 01-01-1970
+     * @throws DateTimeException if the text is not a dd-MM-yyyy date or is not a real date
+     */
+    public static int toEpochDay(String date) {
+        if (date == null || date.length() != 10 || date.charAt(2) != '-' || date.charAt(5) != '-') {
+            throw new DateTimeException("Invalid date: " + date);
+        }
+        int day = digits(date, 0, 2);
+        int month = digits(date, 3, 5);
+        int year = digits(date, 6, 10);
+        return (int) LocalDate.of(year, month, day).toEpochDay();
+    }
+
+    /**
+     * Formats epoch days as a dd-MM-yyyy date
+     *
+     * @param epochDay the number of days since 01-01-1970
+     * @return the formatted date
+     */
+    public static String format(int epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        char[] text = new char[10];
+        put(text, 0, 2, date.getDayOfMonth());
+        text[2] = '-';
+        put(text, 3, 5, date.getMonthValue());
+        text[5] = '-';
+        put(text, 6, 10, date.getYear());
+        return new String(text);
+    }
+
+    private static int digits(String text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new DateTimeException("Invalid date: " + text);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static void put(char[] text, int start, int end, int value) {
+        for (int i = end - 1; i >= start; i--) {
+            text[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+}
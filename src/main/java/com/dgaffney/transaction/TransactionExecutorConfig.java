@@ -0,0 +1,63 @@
+package com.dgaffney.transaction;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Bounded executors the controller hands store work to so request threads are
+ * never held by file io. Reads and writes get separate pools so a slow rewrite
+ * can't starve queries, and each pool has a fixed queue, once it is full new
+ * work is rejected and the request is answered with a 503 instead of waiting.
+ * With group commit a write thread is only held until the batch is queued for
+ * the writer, so a small write pool doesn't limit how many batches share a commit.
+ * The queue of the writer is bounded by the pending-batches and pending-rows
+ * properties of the write pool, a post finding it full is answered with a 503 too
+ */
+@Configuration
+public class TransactionExecutorConfig implements WebMvcConfigurer {
+
+    @Value("${transactions.executor.read.threads:8}")
+    int readThreads;
+
+    @Value("${transactions.executor.read.queue-depth:256}")
+    int readQueueDepth;
+
+    @Value("${transactions.executor.write.threads:2}")
+    int writeThreads;
+
+    @Value("${transactions.executor.write.queue-depth:64}")
+    int writeQueueDepth;
+
+    @Bean
+    public ThreadPoolTaskExecutor transactionReadExecutor() {
+        return createExecutor("transaction-read-", readThreads, readQueueDepth);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor transactionWriteExecutor() {
+        return createExecutor("transaction-write-", writeThreads, writeQueueDepth);
+    }
+
+    /**
+     * Streamed responses are written on the read pool as well so they are bounded like other reads
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(transactionReadExecutor());
+    }
+
+    private ThreadPoolTaskExecutor createExecutor(String threadNamePrefix, int threads, int queueDepth) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueDepth);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.initialize();
+        return executor;
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class TransactionFiles {
+
+    // constant for the name prefix shared by the transaction log segment files
+    public static final String LOG_SEGMENT_PREFIX = "transactions-log-";
+
+    // constant for the name prefix of the directories holding each partition of a partitioned store
+    public static final String PARTITION_PREFIX = "transactions-partition-";
+
+    private final File directory;
+
+    public TransactionFiles() {
+        this(new File(System.getProperty("java.io.tmpdir")));
+    }
+
+    public TransactionFiles(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Gets the directory the transaction files are kept in, the users temp directory
+     * unless the files belong to a partition
+     *
+     * @return the transaction directory
+     */
+    File getDirectory(){
+        return directory;
+    }
+
+    /**
+     * Gets the transaction files of a partition, each partition keeps its
+     * files in its own directory inside this directory
+     *
+     * @param partition the number of the partition
+     * @return the transaction files of the partition
+     */
+    TransactionFiles getPartitionFiles(int partition){
+        File partitionDirectory = new File(directory, PARTITION_PREFIX + partition);
+        partitionDirectory.mkdirs();
+        return new TransactionFiles(partitionDirectory);
+    }
+
+    /**
+     * Gets the directory holding the transaction files of a month of a monthly store
+     *
+     * @param month the yyyy-MM name of the month
+     * @return the month directory
+     */
+    File getMonthDirectory(String month){
+        return new File(directory, MonthlyTransactionStore.MONTH_PREFIX + month);
+    }
+
+    /**
+     * Gets the month directories of a monthly store currently on disk
+     *
+     * @return the month directories
+     */
+    List<File> getMonthDirectories(){
+        File[] months = directory.listFiles(file -> file.isDirectory() && file.getName().startsWith(MonthlyTransactionStore.MONTH_PREFIX));
+        return months == null ? Collections.emptyList() : Arrays.asList(months);
+    }
+
+    /**
+     * Gets a csv file from the users temp directory
+     * with the supplied name
+     *
+     * @param name the name of the file to look for
+     * @return the file
+     */
+    File getTempDirFile(String name){
+        return new File(getDirectory(), name + ".csv");
+    }
+
+    /**
+     * Creates a temp csv file which will be deleted
+     * when the JVM is terminated. Should be used
+     * for creating the transaction files
+     *
+     * @param name the name to use for the file
+     * @return the temp file
+     */
+    File createTempCsvFile(String name) throws Exception {
+        File tempCsv = getTempDirFile(name);
+        tempCsv.createNewFile();
+        tempCsv.setReadable(true);
+        tempCsv.setWritable(true);
+        return tempCsv;
+    }
+
+    /**
+     * Gets a temp csv file by checking to see if the file
+     * already exists in the temp directory. If it does the file
+     * is returned, otherwise the file is created as a temp file
+     * marked for deletion and returned
+     *
+     * @param name the name of the file to check for
+     * @return the temp csv file
+     */
+    File getTempCsvFile(String name) throws Exception {
+        File file = getTempDirFile(name);
+        if(!file.exists()){
+            file = createTempCsvFile(name);
+        }
+        return file;
+    }
+
+    /**
+     * Gets the transaction file which is created
+     * or retrieved depending on if it already exists
+     *
+     * @see #createTempCsvFile(java.lang.String)
+     * @return the transaction file
+     */
+    File getTransactionsFile() throws Exception {
+        return getTempCsvFile("transactions");
+    }
+
+    /**
+     * Gets the transaction copy file which is created
+     * or retrieved depending on if it already exists
+     *
+     * @see #createTempCsvFile(java.lang.String)
+     * @return the transaction copy file
+     */
+    File getTransactionsCopyFile() throws Exception {
+        return getTempCsvFile("transactions-copy");
+    }
+
+    /**
+     * Gets the binary checkpoint of the transaction file, it is only
+     * created once a snapshot has been written with a checkpoint
+     *
+     * @return the checkpoint file
+     */
+    File getCheckpointFile(){
+        return new File(getDirectory(), "transactions.checkpoint");
+    }
+
+    /**
+     * Gets the file a new checkpoint is written to before it replaces the checkpoint
+     *
+     * @return the checkpoint copy file
+     */
+    File getCheckpointCopyFile(){
+        return new File(getDirectory(), "transactions-copy.checkpoint");
+    }
+
+    /**
+     * Replaces the target file with the source file in a single atomic move,
+     * readers which already opened the target keep reading the old contents
+     * and new readers see the replacement, never a missing file
+     *
+     * @param source the file to move
+     * @param target the file to replace
+     * @return true if the file was replaced, false otherwise
+     */
+    boolean replaceFile(File source, File target){
+        boolean replaced;
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            replaced = target.exists();
+        } catch (Exception e) {
+            e.printStackTrace();
+            replaced = false;
+        }
+        return replaced;
+    }
+
+    /**
+     * Gets a transaction log segment file, segments are named with a zero padded
+     * sequence number so listing them by name lists them in the order written
+     *
+     * @param sequence the sequence number of the segment
+     * @return the log segment file
+     */
+    File getLogSegmentFile(long sequence){
+        return getTempDirFile(String.format("%s%012d", LOG_SEGMENT_PREFIX, sequence));
+    }
+
+    /**
+     * Gets the transaction log segment files currently on disk
+     * ordered from the oldest to the newest
+     *
+     * @return the log segment files
+     */
+    List<File> getLogSegmentFiles(){
+        File[] segments = getDirectory().listFiles((dir, name) -> name.startsWith(LOG_SEGMENT_PREFIX) && name.endsWith(".csv"));
+        if(segments == null){
+            return Collections.emptyList();
+        }
+        Arrays.sort(segments, Comparator.comparing(File::getName));
+        return Arrays.asList(segments);
+    }
+
+    /**
+     * Gets the sequence number of a transaction log segment file
+     *
+     * @param segment the log segment file
+     * @return the sequence number of the segment
+     */
+    long getLogSegmentSequence(File segment){
+        String name = segment.getName();
+        return Long.parseLong(name.substring(LOG_SEGMENT_PREFIX.length(), name.length() - ".csv".length()));
+    }
+
+    /**
+     * Gets the bytes held by the transaction files in the directory and in the
+     * directories of any partitions
+     *
+     * @return the bytes held
+     */
+    long getStoredBytes(){
+        return getStoredBytes(directory);
+    }
+
+    private static long getStoredBytes(File directory){
+        long bytes = 0;
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("transactions"));
+        if(files != null){
+            for(File file : files){
+                bytes += file.isDirectory() ? getStoredBytes(file) : file.length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates a transaction object from a line in the transaction file
+     *
+     * @see TransactionCsvCodec#decode(java.lang.String)
+     * @param line the line to use for creating the transaction object
+     * @return the transaction object created from the line, null if the line is not a complete row
+     */
+    Transaction createTransactionFromLine(String line){
+        return TransactionCsvCodec.decode(line);
+    }
+}
@@ -1,12 +1,172 @@
 package com.dgaffney.transaction;
 
-public class TransactionFilter {
+import java.time.DateTimeException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled filter over the date and type of transactions, built once per query.
+ * Each filter is compiled to the cheapest matcher that gives the same answer as
+ * String.matches, the default match all filter does no work, a filter without
+ * regex metacharacters is a plain string comparison and anything else uses a
+ * cached compiled pattern. An optional inclusive range of epoch days narrows
+ * the dates further
+ */
+public class TransactionFilter implements Predicate<Transaction> {
+
+    // constant for the number of compiled patterns kept before the cache is cleared
+    public static final int MAX_CACHED_PATTERNS = 1024;
+
+    // compiled patterns shared across queries, dashboards send the same few filters over and over
+    private static final Map<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+
     private String dateFilter;
     private String typeFilter;
 
+    private Predicate<String> dateMatcher;
+    private Predicate<String> typeMatcher;
+
+    // the inclusive range of epoch days, open ended when not supplied
+    private int fromDay = Integer.MIN_VALUE;
+    private int toDay = Integer.MAX_VALUE;
+
     public TransactionFilter(String dateFilter, String typeFilter) {
-        this.dateFilter = dateFilter;
-        this.typeFilter = typeFilter;
+        this.setDateFilter(dateFilter);
+        this.setTypeFilter(typeFilter);
+    }
+
+    /**
+     * Creates a filter which also limits dates to an inclusive range
+     *
+     * @param dateFilter the regex dates must match
+     * @param typeFilter the regex types must match
+     * @param from the first dd-MM-yyyy date to match, null for no lower bound
+     * @param to the last dd-MM-yyyy date to match, null for no upper bound
+     * @throws java.time.DateTimeException if from or to is not a valid date
+     */
+    public TransactionFilter(String dateFilter, String typeFilter, String from, String to) {
+        this(dateFilter, typeFilter);
+        if (from != null && !from.isEmpty()) {
+            this.fromDay = TransactionDates.toEpochDay(from);
+        }
+        if (to != null && !to.isEmpty()) {
+            this.toDay = TransactionDates.toEpochDay(to);
+        }
+    }
+
+    /**
+     * Creates the filter for the date and type of a query
+     *
+     * @param query the query to create the filter for
+     * @return the compiled filter
+     */
+    public static TransactionFilter of(TransactionQuery query) {
+        return new TransactionFilter(query.getDate(), query.getType(), query.getFrom(), query.getTo());
+    }
+
+    /**
+     * @param transaction the transaction to test
+     * @return true if the date and type of the transaction match and the date is inside the range
+     */
+    @Override
+    public boolean test(Transaction transaction) {
+        return dateMatcher.test(transaction.getDate())
+               && typeMatcher.test(transaction.getType())
+               && (!hasDateRange() || matchesDay(transaction.getDate()));
+    }
+
+    /**
+     * @param epochDay the epoch day to test
+     * @return true if the day is inside the date range
+     */
+    public boolean matchesDay(int epochDay) {
+        return epochDay >= fromDay && epochDay <= toDay;
+    }
+
+    /**
+     * @param date the dd-MM-yyyy date to test
+     * @return true if the date is a valid date inside the date range
+     */
+    private boolean matchesDay(String date) {
+        try {
+            return matchesDay(TransactionDates.toEpochDay(date));
+        } catch (DateTimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return boolean true if the filter limits dates to a range
+     */
+    public boolean hasDateRange() {
+        return fromDay != Integer.MIN_VALUE || toDay != Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return int the first epoch day of the date range
+     */
+    public int getFromDay() {
+        return fromDay;
+    }
+
+    /**
+     * @return int the last epoch day of the date range
+     */
+    public int getToDay() {
+        return toDay;
+    }
+
+    /**
+     * @param date the date to test
+     * @return true if the date matches the date filter
+     */
+    public boolean matchesDate(String date) {
+        return dateMatcher.test(date);
+    }
+
+    /**
+     * @param type the type to test
+     * @return true if the type matches the type filter
+     */
+    public boolean matchesType(String type) {
+        return typeMatcher.test(type);
+    }
+
+    /**
+     * @return boolean true if the filter matches every transaction
+     */
+    public boolean matchesAll() {
+        return matchesAllDates() && matchesAllTypes();
+    }
+
+    /**
+     * @return boolean true if the date filter and date range match every date
+     */
+    public boolean matchesAllDates() {
+        return isMatchAll(dateFilter) && !hasDateRange();
+    }
+
+    /**
+     * @return boolean true if the type filter matches every type
+     */
+    public boolean matchesAllTypes() {
+        return isMatchAll(typeFilter);
+    }
+
+    /**
+     * @return String the date the filter matches exactly or null if it is a regex
+     */
+    public String getExactDate() {
+        return isLiteral(dateFilter) ? dateFilter : null;
+    }
+
+    /**
+     * @return String the type the filter matches exactly or null if it is a regex
+     */
+    public String getExactType() {
+        return isLiteral(typeFilter) ? typeFilter : null;
     }
 
     /**
@@ -21,6 +181,7 @@ public class TransactionFilter {
      */
     public void setDateFilter(String dateFilter) {
         this.dateFilter = dateFilter;
+        this.dateMatcher = compile(dateFilter);
     }
 
     /**
@@ -35,6 +196,46 @@ public class TransactionFilter {
      */
     public void setTypeFilter(String typeFilter) {
         this.typeFilter = typeFilter;
+        this.typeMatcher = compile(typeFilter);
+    }
+
+    /**
+     * Compiles a filter to the cheapest matcher giving the same answer as String.matches
+     *
+     * @param filter the filter to compile
+     * @return the matcher for the filter
+     */
+    static Predicate<String> compile(String filter) {
+        if (isMatchAll(filter)) {
+            return value -> true;
+        }
+        if (isLiteral(filter)) {
+            return filter::equals;
+        }
+        if (PATTERNS.size() >= MAX_CACHED_PATTERNS) {
+            PATTERNS.clear();
+        }
+        Pattern pattern = PATTERNS.computeIfAbsent(filter, Pattern::compile);
+        return value -> pattern.matcher(value).matches();
+    }
+
+    private static boolean isMatchAll(String filter) {
+        return filter == null || TransactionQuery.DEFAULT_MATCH_ALL.equals(filter);
+    }
+
+    /**
+     * @return true if the filter has no regex metacharacters so only matches itself
+     */
+    private static boolean isLiteral(String filter) {
+        if (filter == null) {
+            return false;
+        }
+        for (int i = 0; i < filter.length(); i++) {
+            if ("\\^$.|?*+()[]{}".indexOf(filter.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
-}
\ No newline at end of file
+}
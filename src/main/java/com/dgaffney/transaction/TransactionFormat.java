@@ -0,0 +1,127 @@
+package com.dgaffney.transaction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The formats transactions can be streamed in and out. A streamed response is a
+ * run of rows and, if the limit stopped the scan before the end of the store, a
+ * last line holding the cursor to resume from. The csv cursor line is a comment
+ * so a streamed csv export can be uploaded again as it is
+ */
+public enum TransactionFormat {
+
+    NDJSON(TransactionFormat.NDJSON_VALUE) {
+        @Override
+        void writeRows(List<Transaction> rows, ObjectMapper objectMapper, OutputStream out) throws IOException {
+            for (Transaction row : rows) {
+                out.write(objectMapper.writeValueAsBytes(row));
+                out.write('\n');
+            }
+        }
+
+        @Override
+        void writeCursor(String cursor, ObjectMapper objectMapper, OutputStream out) throws IOException {
+            out.write(objectMapper.writeValueAsBytes(Collections.singletonMap("cursor", cursor)));
+            out.write('\n');
+        }
+
+        @Override
+        Transaction readRow(byte[] bytes, int start, int end, ObjectMapper objectMapper) {
+            try {
+                return objectMapper.readValue(bytes, start, end - start, Transaction.class);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    },
+
+    CSV(TransactionFormat.CSV_VALUE) {
+        @Override
+        void writeRows(List<Transaction> rows, ObjectMapper objectMapper, OutputStream out) throws IOException {
+            try (TransactionCsvCodec.Encoder encoder = new TransactionCsvCodec.Encoder(Channels.newChannel(out))) {
+                for (Transaction row : rows) {
+                    encoder.encode(row);
+                }
+            }
+        }
+
+        @Override
+        void writeCursor(String cursor, ObjectMapper objectMapper, OutputStream out) throws IOException {
+            out.write(("# cursor " + cursor + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        boolean isComment(byte[] bytes, int start, int end) {
+            return bytes[start] == '#';
+        }
+
+        @Override
+        Transaction readRow(byte[] bytes, int start, int end, ObjectMapper objectMapper) {
+            return TransactionCsvCodec.decode(bytes, start, end);
+        }
+    };
+
+    // constants for the media types of the formats
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String CSV_VALUE = "text/csv";
+
+    private final String mediaType;
+
+    TransactionFormat(String mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @return String return the mediaType
+     */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Writes a page of rows
+     *
+     * @param rows the rows to write
+     * @param objectMapper the mapper to write json with
+     * @param out the stream to write to
+     */
+    abstract void writeRows(List<Transaction> rows, ObjectMapper objectMapper, OutputStream out) throws IOException;
+
+    /**
+     * Writes the cursor a client resumes the scan from
+     *
+     * @param cursor the cursor to write
+     * @param objectMapper the mapper to write json with
+     * @param out the stream to write to
+     */
+    abstract void writeCursor(String cursor, ObjectMapper objectMapper, OutputStream out) throws IOException;
+
+    /**
+     * @param bytes the bytes holding a non blank line
+     * @param start the offset of the first byte of the line
+     * @param end the offset after the last byte of the line
+     * @return true if the line is a comment such as a cursor line rather than a row
+     */
+    boolean isComment(byte[] bytes, int start, int end) {
+        return false;
+    }
+
+    /**
+     * Reads a single row
+     *
+     * @param bytes the bytes holding the row
+     * @param start the offset of the first byte of the row
+     * @param end the offset after the last byte of the row
+     * @param objectMapper the mapper to read json with
+     * @return the transaction or null if the row can't be read
+     */
+    abstract Transaction readRow(byte[] bytes, int start, int end, ObjectMapper objectMapper);
+
+}
@@ -0,0 +1,430 @@
+package com.dgaffney.transaction;
+
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Resident index of the stored transactions keyed by date and type, held in
+ * primitive arrays rather than as objects. Each row is an epoch day, an
+ * interned type id and an amount in cents stored in parallel columns by row
+ * number, and an open addressing table maps the packed epoch day and type id
+ * of a row to its number, so a row costs a few dozen bytes in a handful of
+ * large arrays however many rows there are. Transactions are only built when
+ * a row is handed out. Rows are numbered by the order they were first stored
+ * in so queries return them in the same order as the transaction file. Two
+ * secondary indexes of those row numbers, one sorted by epoch day and a
+ * postings list per type, let date range and type queries skip rows they
+ * can't match. Rows whose date is not a real date are kept apart in a small
+ * map. Every query records the rows it looked at and the rows it returned.
+ * This class is not thread safe, callers guard it with their own lock
+ */
+public class TransactionIndex {
+
+    // constant for the epoch day held by rows whose date is not a real date
+    static final int UNDATED = Integer.MAX_VALUE;
+
+    // constant for an empty slot of the key table, no real epoch day and type id packs to it
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final IntList NO_ROWS = new IntList();
+
+    // the metrics queries record the rows they scanned and matched in
+    TransactionMetrics metrics = TransactionMetrics.noop();
+
+    // the columns of the rows by row number
+    private int[] days = new int[1024];
+    private int[] typeIds = new int[1024];
+    private long[] cents = new long[1024];
+    private int size;
+
+    // types interned to ids, a type is stored once however many rows share it
+    private final Map<String, Integer> typeIdsByType = new HashMap<>();
+    private final List<String> types = new ArrayList<>();
+
+    // open addressing table of packed epoch day and type id keys to row numbers, probed linearly
+    private long[] slotKeys = newSlotKeys(2048);
+    private int[] slotRows = new int[2048];
+
+    // rows whose date is not a real date, by date and type and by row number
+    private final Map<TransactionKey, Integer> undatedOrdinals = new HashMap<>();
+    private final Map<Integer, String> undatedDates = new HashMap<>();
+    private final IntList undatedRows = new IntList();
+
+    // row numbers by epoch day, rows with a date that is not a real date are left out
+    private final NavigableMap<Integer, IntList> dateIndex = new TreeMap<>();
+
+    // row numbers by type id
+    private final List<IntList> typePostings = new ArrayList<>();
+
+    /**
+     * @param key the date and type to look up
+     * @return Transaction the row with the date and type or null if there is none
+     */
+    Transaction get(TransactionKey key) {
+        int row = rowOf(key.getDate(), key.getType());
+        return row < 0 ? null : row(row);
+    }
+
+    /**
+     * Puts a row into the index, replacing the amount of any earlier row with
+     * the same date and type
+     *
+     * @param transaction the row to put
+     */
+    void put(Transaction transaction) {
+        int row = rowOf(transaction.getDate(), transaction.getType());
+        if (row < 0) {
+            add(transaction);
+        } else {
+            // the date and type are unchanged so the secondary indexes still hold
+            cents[row] = transaction.getCents();
+        }
+    }
+
+    /**
+     * @return int the number of rows in the index
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Builds the transaction held by a row
+     *
+     * @param row the row number
+     * @return the transaction
+     */
+    Transaction row(int row) {
+        return new Transaction(dateOf(row), types.get(typeIds[row]), cents[row]);
+    }
+
+    /**
+     * @return long the bytes taken by the arrays of the index, a close estimate of its heap footprint
+     */
+    long estimatedBytes() {
+        long bytes = (long) days.length * Integer.BYTES + (long) typeIds.length * Integer.BYTES + (long) cents.length * Long.BYTES
+                     + (long) slotKeys.length * Long.BYTES + (long) slotRows.length * Integer.BYTES;
+        // each row sits in one date and one type postings list
+        return bytes + 2L * size * Integer.BYTES;
+    }
+
+    /**
+     * Finds the rows matching a filter in the order they were first stored, stopping
+     * once the limit is reached. Rows are read through the secondary indexes when
+     * the filter has an exact type, an exact date or a date range, picking whichever
+     * index yields the fewest candidates, so the cost tracks the size of the result
+     * rather than the size of the index
+     *
+     * @param filter the filter to match
+     * @param limit the most rows to return
+     * @return the matching rows
+     */
+    List<Transaction> find(TransactionFilter filter, int limit) {
+        List<Transaction> matches = new ArrayList<>();
+        RowMatcher matcher = new RowMatcher(filter);
+        IntList candidates = plan(filter);
+        int candidateCount = candidates == null ? size : candidates.size();
+        int scanned = 0;
+        for (int i = 0; i < candidateCount && matches.size() < limit; i++) {
+            int row = candidates == null ? i : candidates.get(i);
+            scanned++;
+            if (matcher.matches(row)) {
+                matches.add(row(row));
+            }
+        }
+        metrics.recordQuery(scanned, matches.size());
+        return matches;
+    }
+
+    /**
+     * Finds the first rows matching a filter in sort order. Sorted by date the date index
+     * is walked day by day in the sorted direction, each day's matches ordered by type,
+     * and the walk stops at the first day which reaches the limit, rows without a real
+     * date come last. Sorted by amount the candidates the filter plans are kept in a
+     * bounded heap, and a row which loses to the last kept row on its amount alone is
+     * turned away without being built, so either way only the limit of rows is held
+     *
+     * @param filter the filter to match
+     * @param sort the order to return the matches in
+     * @param limit the most rows to return
+     * @return the first matching rows in sort order
+     */
+    List<Transaction> findSorted(TransactionFilter filter, TransactionSort sort, int limit) {
+        RowMatcher matcher = new RowMatcher(filter);
+        if (sort.getField() == TransactionSort.Field.AMOUNT) {
+            TransactionTopK topK = new TransactionTopK(sort, limit);
+            IntList candidates = plan(filter);
+            int candidateCount = candidates == null ? size : candidates.size();
+            for (int i = 0; i < candidateCount; i++) {
+                int row = candidates == null ? i : candidates.get(i);
+                if (topK.mayKeep(cents[row], days[row] != UNDATED) && matcher.matches(row)) {
+                    topK.offer(row(row));
+                }
+            }
+            List<Transaction> matches = topK.result();
+            metrics.recordQuery(candidateCount, matches.size());
+            return matches;
+        }
+
+        List<Transaction> matches = new ArrayList<>();
+        int scanned = 0;
+        int fromDay = filter.getFromDay();
+        int toDay = filter.getToDay();
+        boolean datedRowsCanMatch = true;
+        if (filter.getExactDate() != null) {
+            try {
+                int exactDay = TransactionDates.toEpochDay(filter.getExactDate());
+                fromDay = Math.max(fromDay, exactDay);
+                toDay = Math.min(toDay, exactDay);
+            } catch (DateTimeException e) {
+                datedRowsCanMatch = false;
+            }
+        }
+        if (datedRowsCanMatch && fromDay <= toDay) {
+            NavigableMap<Integer, IntList> days = dateIndex.subMap(fromDay, true, toDay, true);
+            for (IntList day : (sort.isDescending() ? days.descendingMap() : days).values()) {
+                scanned += addSortedMatches(day, matcher, sort, limit, matches);
+                if (matches.size() >= limit) {
+                    metrics.recordQuery(scanned, matches.size());
+                    return matches;
+                }
+            }
+        }
+        scanned += addSortedMatches(undatedRows, matcher, sort, limit, matches);
+        metrics.recordQuery(scanned, matches.size());
+        return matches;
+    }
+
+    /**
+     * Adds the rows of a set of candidates which match a filter in sort order, up to the limit
+     *
+     * @return the number of rows looked at
+     */
+    private int addSortedMatches(IntList candidates, RowMatcher matcher, TransactionSort sort, int limit, List<Transaction> matches) {
+        TransactionTopK topK = new TransactionTopK(sort, limit - matches.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            int row = candidates.get(i);
+            if (matcher.matches(row)) {
+                topK.offer(row(row));
+            }
+        }
+        matches.addAll(topK.result());
+        return candidates.size();
+    }
+
+    /**
+     * Plans which rows a filter has to look at
+     *
+     * @param filter the filter to plan for
+     * @return the candidate row numbers in ascending order or null if every row is a candidate
+     */
+    IntList plan(TransactionFilter filter) {
+        IntList byType = null;
+        if (filter.getExactType() != null) {
+            Integer typeId = typeIdsByType.get(filter.getExactType());
+            byType = typeId == null ? NO_ROWS : typePostings.get(typeId);
+        }
+
+        int fromDay = filter.getFromDay();
+        int toDay = filter.getToDay();
+        boolean byDate = filter.hasDateRange();
+        if (filter.getExactDate() != null) {
+            try {
+                int exactDay = TransactionDates.toEpochDay(filter.getExactDate());
+                fromDay = Math.max(fromDay, exactDay);
+                toDay = Math.min(toDay, exactDay);
+                byDate = true;
+            } catch (DateTimeException e) {
+                // only a row stored with the same invalid date can match, which the date index doesn't hold
+            }
+        }
+        if (!byDate) {
+            return byType;
+        }
+        if (fromDay > toDay) {
+            return NO_ROWS;
+        }
+
+        // count the date candidates before collecting them so the smaller side drives the lookup
+        NavigableMap<Integer, IntList> days = dateIndex.subMap(fromDay, true, toDay, true);
+        int byDateCount = 0;
+        for (IntList day : days.values()) {
+            byDateCount += day.size();
+        }
+        if (byType != null && byType.size() <= byDateCount) {
+            return byType;
+        }
+
+        IntList byDateRows = new IntList(byDateCount);
+        days.values().forEach(byDateRows::addAll);
+        byDateRows.sort();
+        return byDateRows;
+    }
+
+    /**
+     * Looks up the row holding a date and type
+     *
+     * @param date the date of the row
+     * @param type the type of the row
+     * @return the row number or -1 if there is no such row
+     */
+    private int rowOf(String date, String type) {
+        int day = epochDayOf(date);
+        if (day == UNDATED) {
+            Integer row = undatedOrdinals.get(new TransactionKey(date, type));
+            return row == null ? -1 : row;
+        }
+        Integer typeId = typeIdsByType.get(type);
+        if (typeId == null) {
+            return -1;
+        }
+        long key = key(day, typeId);
+        int slot = slotOf(key);
+        return slotKeys[slot] == key ? slotRows[slot] : -1;
+    }
+
+    /**
+     * Adds a new row to the index and its secondary indexes
+     *
+     * @param transaction the row to add
+     */
+    private void add(Transaction transaction) {
+        int row = size;
+        if (row == days.length) {
+            int capacity = row * 2;
+            days = Arrays.copyOf(days, capacity);
+            typeIds = Arrays.copyOf(typeIds, capacity);
+            cents = Arrays.copyOf(cents, capacity);
+        }
+        int typeId = typeIdsByType.computeIfAbsent(transaction.getType(), type -> {
+            types.add(type);
+            typePostings.add(new IntList());
+            return types.size() - 1;
+        });
+        int day = epochDayOf(transaction.getDate());
+        days[row] = day;
+        typeIds[row] = typeId;
+        cents[row] = transaction.getCents();
+        size++;
+
+        typePostings.get(typeId).add(row);
+        if (day == UNDATED) {
+            // only regex queries can match a date which is not a real date and those don't use the date index
+            undatedOrdinals.put(TransactionKey.of(transaction), row);
+            undatedDates.put(row, transaction.getDate());
+            undatedRows.add(row);
+        } else {
+            dateIndex.computeIfAbsent(day, key -> new IntList()).add(row);
+            // keep the table at most half full so probes stay short
+            if (size * 2 > slotKeys.length) {
+                resize(slotKeys.length * 2);
+            }
+            long key = key(day, typeId);
+            int slot = slotOf(key);
+            slotKeys[slot] = key;
+            slotRows[slot] = row;
+        }
+    }
+
+    /**
+     * @return the slot holding the key or the empty slot it would go in
+     */
+    private int slotOf(long key) {
+        int mask = slotKeys.length - 1;
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (mixed ^ (mixed >>> 32)) & mask;
+        while (slotKeys[slot] != EMPTY && slotKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Moves every key into a table with the supplied number of slots
+     */
+    private void resize(int slots) {
+        long[] oldKeys = slotKeys;
+        int[] oldRows = slotRows;
+        slotKeys = newSlotKeys(slots);
+        slotRows = new int[slots];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                slotKeys[slot] = oldKeys[i];
+                slotRows[slot] = oldRows[i];
+            }
+        }
+    }
+
+    private String dateOf(int row) {
+        return days[row] == UNDATED ? undatedDates.get(row) : TransactionDates.format(days[row]);
+    }
+
+    private static long[] newSlotKeys(int slots) {
+        long[] keys = new long[slots];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int epochDayOf(String date) {
+        try {
+            return TransactionDates.toEpochDay(date);
+        } catch (DateTimeException e) {
+            return UNDATED;
+        }
+    }
+
+    /**
+     * Packs an epoch day and a type id into a single key
+     */
+    private static long key(int epochDay, int typeId) {
+        return ((long) epochDay << 32) | (typeId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Tests rows against a filter straight from the columns, the type filter is evaluated
+     * once per type and the date filter once per day so only rows without a real date
+     * are built to be tested
+     */
+    private class RowMatcher {
+
+        private final TransactionFilter filter;
+        private final boolean allTypes;
+        private final boolean allDates;
+        private final Boolean[] typeMatches = new Boolean[types.size()];
+        private final Map<Integer, Boolean> dayMatches = new HashMap<>();
+
+        RowMatcher(TransactionFilter filter) {
+            this.filter = filter;
+            this.allTypes = filter.matchesAllTypes();
+            this.allDates = filter.matchesAllDates();
+        }
+
+        boolean matches(int row) {
+            int day = days[row];
+            if (day == UNDATED) {
+                return filter.test(row(row));
+            }
+            if (!allTypes) {
+                int typeId = typeIds[row];
+                if (typeMatches[typeId] == null) {
+                    typeMatches[typeId] = filter.matchesType(types.get(typeId));
+                }
+                if (!typeMatches[typeId]) {
+                    return false;
+                }
+            }
+            if (!filter.matchesDay(day)) {
+                return false;
+            }
+            return allDates || dayMatches.computeIfAbsent(day, key -> filter.matchesDate(TransactionDates.format(key)));
+        }
+    }
+
+}
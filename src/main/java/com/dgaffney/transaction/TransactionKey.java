@@ -0,0 +1,58 @@
+package com.dgaffney.transaction;
+
+/**
+ * The identity of a stored transaction, transactions sharing
+ * a date and type are merged into a single row
+ */
+public final class TransactionKey {
+
+    private final String date;
+    private final String type;
+
+    public TransactionKey(String date, String type) {
+        this.date = date;
+        this.type = type;
+    }
+
+    /**
+     * Creates the key for the supplied transaction
+     *
+     * @param transaction the transaction to create the key for
+     * @return the date and type key of the transaction
+     */
+    public static TransactionKey of(Transaction transaction) {
+        return new TransactionKey(transaction.getDate(), transaction.getType());
+    }
+
+    /**
+     * @return String return the date
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * @return String return the type
+     */
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TransactionKey)) {
+            return false;
+        }
+        TransactionKey other = (TransactionKey) obj;
+        return date.equals(other.date) && type.equals(other.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * date.hashCode() + type.hashCode();
+    }
+
+}
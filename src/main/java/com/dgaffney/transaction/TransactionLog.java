@@ -0,0 +1,463 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only durable log of merged transaction rows. Each commit appends the
+ * rows touched by a batch, holding their new totals, to the active log segment
+ * and forces it to disk. Compaction folds sealed segments into the snapshot
+ * held in the transaction file, so the durable state is always the snapshot
+ * followed by the log tail with the last row for a date and type winning.
+ * Every snapshot written by compaction also gets a binary {@link TransactionCheckpoint}
+ * so the next start loads it without parsing the csv. The active segment is only
+ * opened by the first append after it was sealed, so an idle log holds no open file.
+ * Each append ends with a commit line holding the number of rows and the crc32 of their
+ * bytes, and the rows after the last intact commit line of a segment, such as a batch
+ * torn by a crash before it was forced, are never replayed or folded
+ */
+public class TransactionLog {
+
+    // starts the line which commits the rows appended before it, never a valid date so it never decodes as a row
+    static final String COMMIT_MARKER = "#commit";
+
+    TransactionFiles transactionFiles;
+
+    // segments are sealed once they grow past this many bytes
+    private final long segmentBytes;
+
+    // the bytes of a file decoded by each parallel task while replaying
+    long loadChunkBytes = 8 * 1024 * 1024;
+
+    // whether snapshots are also written as a binary checkpoint
+    boolean checkpoints = true;
+
+    // the segment being appended to, null until the first append after the last one was sealed
+    private FileChannel activeSegment;
+    private long activeSequence;
+
+    // guards compaction so only one fold of the segments runs at a time
+    private final Object compactionLock = new Object();
+
+    // set once the log is closed, a compaction after that does nothing
+    private boolean closed;
+
+    public TransactionLog(TransactionFiles transactionFiles, long segmentBytes) {
+        this.transactionFiles = transactionFiles;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Replays the durable state, first the snapshot and then every log segment
+     * in the order they were written, and appends will go to a fresh active
+     * segment after the last one found. The snapshot is loaded from its checkpoint when there
+     * is one matching it, otherwise it and the segments are decoded in parallel chunks. Rows
+     * are handed over as they are decoded, so the consumer has to let a later row for a date
+     * and type replace an earlier one
+     *
+     * @param consumer the consumer to receive every row replayed
+     */
+    synchronized void replay(Consumer<Transaction> consumer) throws Exception {
+        File snapshot = transactionFiles.getTransactionsFile();
+        boolean loaded = false;
+        if (checkpoints) {
+            try {
+                loaded = TransactionCheckpoint.read(transactionFiles.getCheckpointFile(), snapshot, consumer);
+            } catch (IOException e) {
+                // a damaged checkpoint only costs the csv parse, which replaces the rows it already handed over
+                e.printStackTrace();
+            }
+        }
+        if (!loaded) {
+            TransactionCsvCodec.readParallel(snapshot, loadChunkBytes, consumer);
+        }
+
+        long lastSequence = 0;
+        for (File segment : transactionFiles.getLogSegmentFiles()) {
+            TransactionCsvCodec.readParallel(segment, committedLength(segment), loadChunkBytes, consumer);
+            lastSequence = transactionFiles.getLogSegmentSequence(segment);
+        }
+        // never append to a segment written by an earlier run, its tail may be torn
+        activeSequence = lastSequence + 1;
+    }
+
+    /**
+     * Appends rows to the active segment followed by their commit line and forces them
+     * to disk before returning, the segment is sealed and a new one opened once it passes
+     * the segment size.
+     * When a write or the force fails the rows already written are cut off again and
+     * the segment is sealed, so the next append starts a fresh segment rather than
+     * following a tail which may be torn or never reach the disk
+     *
+     * @param rows the rows to append
+     */
+    synchronized void append(Collection<Transaction> rows) throws Exception {
+        if (activeSegment == null) {
+            openSegment(activeSequence);
+        }
+        long start = activeSegment.size();
+        try {
+            CRC32 checksum = new CRC32();
+            TransactionCsvCodec.Encoder encoder = new TransactionCsvCodec.Encoder(new ChecksumChannel(activeSegment, checksum));
+            for (Transaction row : rows) {
+                encoder.encode(row);
+            }
+            encoder.flush();
+            ByteBuffer commit = ByteBuffer.wrap(commitLine(rows.size(), checksum.getValue()).getBytes(StandardCharsets.US_ASCII));
+            while (commit.hasRemaining()) {
+                activeSegment.write(commit);
+            }
+            // fsync on commit, the data is forced but the file metadata does not need to be
+            activeSegment.force(false);
+        } catch (Exception e) {
+            try {
+                // the batch failed so it must not be replayed
+                activeSegment.truncate(start);
+                activeSegment.force(true);
+            } catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+            }
+            try {
+                sealActiveSegment();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+
+        if (activeSegment.size() >= segmentBytes) {
+            sealActiveSegment();
+        }
+    }
+
+    /**
+     * Folds every sealed segment into the snapshot. The active segment is sealed first
+     * if it holds rows so an idle log is folded completely. Appends carry on into the
+     * next segment while the fold runs, and segments are only deleted once the new
+     * snapshot has replaced the old one, so a crash at any point replays to the same state.
+     * The checkpoint is written alongside the new snapshot, and a snapshot left without
+     * one, such as one from before checkpoints were turned on, gets one written from it
+     */
+    void compact() throws Exception {
+        synchronized (compactionLock) {
+            if (closed) {
+                return;
+            }
+            List<File> sealed = sealSegments();
+            if (sealed.isEmpty()) {
+                if (checkpoints && !TransactionCheckpoint.isCurrent(transactionFiles.getCheckpointFile(), transactionFiles.getTransactionsFile())) {
+                    checkpoint();
+                }
+                return;
+            }
+
+            // collapse the segments to the latest row per date and type
+            Map<TransactionKey, Transaction> latest = new LinkedHashMap<>();
+            for (File segment : sealed) {
+                readRows(segment, row -> latest.put(TransactionKey.of(row), row));
+            }
+
+            File transactionFile = transactionFiles.getTransactionsFile();
+            File transactionCopyFile = transactionFiles.getTransactionsCopyFile();
+            TransactionCheckpoint.Writer checkpoint = checkpoints ? new TransactionCheckpoint.Writer(transactionFiles.getCheckpointCopyFile()) : null;
+            try (FileChannel copyChannel = FileChannel.open(transactionCopyFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                TransactionCsvCodec.Encoder encoder = new TransactionCsvCodec.Encoder(copyChannel);
+                // stream the snapshot through, replacing rows which the log superseded
+                Set<TransactionKey> replaced = new HashSet<>();
+                TransactionCsvCodec.read(transactionFile, (row, nextOffset) -> {
+                    TransactionKey key = TransactionKey.of(row);
+                    Transaction superseded = latest.get(key);
+                    if (superseded != null) {
+                        replaced.add(key);
+                    }
+                    encode(encoder, checkpoint, superseded == null ? row : superseded);
+                    return true;
+                });
+                // rows the snapshot didn't hold were created in the log
+                for (Map.Entry<TransactionKey, Transaction> entry : latest.entrySet()) {
+                    if (!replaced.contains(entry.getKey())) {
+                        encode(encoder, checkpoint, entry.getValue());
+                    }
+                }
+                encoder.flush();
+                copyChannel.force(true);
+            } catch (Exception e) {
+                if (checkpoint != null) {
+                    checkpoint.close();
+                }
+                throw e;
+            }
+            // the old checkpoint goes first so it can never be mistaken for an image of the new snapshot
+            transactionFiles.getCheckpointFile().delete();
+            if (!transactionFiles.replaceFile(transactionCopyFile, transactionFile)) {
+                throw new IllegalStateException("Error occurred replacing the transaction snapshot");
+            }
+            if (checkpoint != null) {
+                commit(checkpoint, transactionFile);
+            }
+            sealed.forEach(File::delete);
+        }
+    }
+
+    /**
+     * Writes a checkpoint of the snapshot as it stands
+     */
+    private void checkpoint() throws Exception {
+        File transactionFile = transactionFiles.getTransactionsFile();
+        TransactionCheckpoint.Writer checkpoint = new TransactionCheckpoint.Writer(transactionFiles.getCheckpointCopyFile());
+        try {
+            TransactionCsvCodec.read(transactionFile, (row, nextOffset) -> {
+                encode(null, checkpoint, row);
+                return true;
+            });
+        } catch (Exception e) {
+            checkpoint.close();
+            throw e;
+        }
+        commit(checkpoint, transactionFile);
+    }
+
+    /**
+     * Commits a checkpoint of a snapshot, a failure only leaves the snapshot without
+     * a checkpoint so it is reported rather than failing the compaction
+     *
+     * @param checkpoint the checkpoint holding the rows of the snapshot
+     * @param transactionFile the snapshot
+     */
+    private void commit(TransactionCheckpoint.Writer checkpoint, File transactionFile) {
+        try {
+            checkpoint.commit(transactionFile, transactionFiles.getCheckpointFile(), transactionFiles);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the active segment, waiting for a running compaction to finish first
+     */
+    void close() throws Exception {
+        synchronized (compactionLock) {
+            closed = true;
+            synchronized (this) {
+                if (activeSegment != null) {
+                    activeSegment.close();
+                    activeSegment = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Seals the active segment if it holds any rows and returns every segment
+     * which is no longer being appended to. An open active segment without rows
+     * is closed as well, the next append opens it again
+     *
+     * @return the sealed segments oldest first
+     */
+    private synchronized List<File> sealSegments() throws Exception {
+        if (activeSegment != null && activeSegment.size() > 0) {
+            sealActiveSegment();
+        } else if (activeSegment != null) {
+            activeSegment.close();
+            activeSegment = null;
+        }
+        List<File> sealed = new ArrayList<>();
+        for (File segment : transactionFiles.getLogSegmentFiles()) {
+            if (transactionFiles.getLogSegmentSequence(segment) < activeSequence) {
+                sealed.add(segment);
+            }
+        }
+        return sealed;
+    }
+
+    /**
+     * Closes the active segment so nothing is appended to it again, the next append opens the next segment
+     */
+    private void sealActiveSegment() throws IOException {
+        FileChannel sealed = activeSegment;
+        activeSegment = null;
+        activeSequence++;
+        sealed.close();
+    }
+
+    /**
+     * Opens the active segment with the supplied sequence number
+     *
+     * @param sequence the sequence number of the segment
+     */
+    private void openSegment(long sequence) throws Exception {
+        activeSequence = sequence;
+        activeSegment = FileChannel.open(transactionFiles.getLogSegmentFile(sequence).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reads every committed row from a segment file, the rows of a batch left
+     * without its commit line by a crash during an append are skipped
+     *
+     * @param file the file to read
+     * @param consumer the consumer to receive each row
+     */
+    private void readRows(File file, Consumer<Transaction> consumer) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            TransactionCsvCodec.read(channel, 0, committedLength(channel), (row, nextOffset) -> {
+                consumer.accept(row);
+                return true;
+            });
+        }
+    }
+
+    /**
+     * @return String the line committing the rows of an append
+     */
+    static String commitLine(int rows, long checksum) {
+        return COMMIT_MARKER + "," + rows + "," + Long.toHexString(checksum) + "\n";
+    }
+
+    /**
+     * @param segment the segment to check
+     * @return long the offset just after the last commit line of the segment
+     */
+    static long committedLength(File segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            return committedLength(channel);
+        }
+    }
+
+    /**
+     * Finds how much of a segment was committed, rows count towards the batch being read
+     * until a commit line holding their number and checksum ends it. Reading stops at the
+     * first commit line which doesn't match the rows before it, so a damaged batch and
+     * everything after it is dropped along with a batch torn by a crash, whose rows may
+     * decode as other valid rows
+     *
+     * @param channel the channel of the segment
+     * @return long the offset just after the last commit line which matched its rows
+     */
+    static long committedLength(FileChannel channel) throws IOException {
+        byte[] bytes = new byte[TransactionCsvCodec.BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        CRC32 checksum = new CRC32();
+        int rows = 0;
+        long committed = 0;
+        // the offset in the segment of bytes[0]
+        long bufferOffset = 0;
+        while (channel.read(buffer, bufferOffset + buffer.position()) >= 0) {
+            int filled = buffer.position();
+            int lineStart = 0;
+            for (int newline = lineStart; newline < filled; newline++) {
+                if (bytes[newline] != '\n') {
+                    continue;
+                }
+                if (isCommitLine(bytes, lineStart, newline)) {
+                    if (!commitLine(rows, checksum.getValue()).equals(new String(bytes, lineStart, newline + 1 - lineStart, StandardCharsets.US_ASCII))) {
+                        return committed;
+                    }
+                    committed = bufferOffset + newline + 1;
+                    checksum.reset();
+                    rows = 0;
+                } else {
+                    checksum.update(bytes, lineStart, newline + 1 - lineStart);
+                    rows++;
+                }
+                lineStart = newline + 1;
+            }
+
+            // move the partial line to the front of the buffer, growing it if one line fills it
+            int partial = filled - lineStart;
+            if (partial == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            } else {
+                System.arraycopy(bytes, lineStart, bytes, 0, partial);
+            }
+            bufferOffset += lineStart;
+            buffer.clear();
+            buffer.position(partial);
+        }
+        return committed;
+    }
+
+    private static boolean isCommitLine(byte[] bytes, int start, int end) {
+        int length = COMMIT_MARKER.length();
+        if (end - start <= length || bytes[start + length] != ',') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[start + i] != COMMIT_MARKER.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes through to a channel, adding every byte written to a checksum
+     */
+    private static class ChecksumChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+        private final CRC32 checksum;
+
+        ChecksumChannel(WritableByteChannel channel, CRC32 checksum) {
+            this.channel = channel;
+            this.checksum = checksum;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            ByteBuffer written = source.duplicate();
+            int count = channel.write(source);
+            written.limit(written.position() + count);
+            checksum.update(written);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Encodes a row from inside a row handler, which can't throw checked exceptions
+     *
+     * @param encoder the encoder to write with, null to only write the checkpoint
+     * @param checkpoint the checkpoint to also write the row to, null if there is none
+     * @param row the row to encode
+     */
+    private void encode(TransactionCsvCodec.Encoder encoder, TransactionCheckpoint.Writer checkpoint, Transaction row) {
+        try {
+            if (encoder != null) {
+                encoder.encode(row);
+            }
+            if (checkpoint != null) {
+                checkpoint.write(row);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
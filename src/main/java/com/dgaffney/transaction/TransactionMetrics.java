@@ -0,0 +1,155 @@
+package com.dgaffney.transaction;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * The meters recorded on the storage hot paths, registered once up front so
+ * recording is a clock read and an add. Stores which are not given the
+ * application registry record into an empty composite registry, which
+ * drops everything
+ */
+public class TransactionMetrics {
+
+    final Timer readLockWait;
+    final Timer writeLockWait;
+    final Timer merge;
+    final Timer rewrite;
+    final Timer replace;
+    final Timer logAppend;
+    final DistributionSummary batchSize;
+    final DistributionSummary rowsScanned;
+    final DistributionSummary rowsMatched;
+    final Counter created;
+    final Counter updated;
+    final Counter cacheHits;
+    final Counter cacheMisses;
+    final Counter cacheEvictions;
+
+    // the loaded index engines, one per partition when the store is partitioned
+    final List<IndexedTransactionStore> indexes = new CopyOnWriteArrayList<>();
+
+    public TransactionMetrics(MeterRegistry registry) {
+        readLockWait = Timer.builder("transactions.lock.wait").description("Time spent waiting for a store lock").tag("lock", "read").register(registry);
+        writeLockWait = Timer.builder("transactions.lock.wait").description("Time spent waiting for a store lock").tag("lock", "write").register(registry);
+        merge = Timer.builder("transactions.merge").description("Time taken to merge a batch into the store").register(registry);
+        rewrite = Timer.builder("transactions.merge.rewrite").description("Time taken by the csv engine to write the merged copy of the file").register(registry);
+        replace = Timer.builder("transactions.merge.replace").description("Time taken by the csv engine to swap the merged copy in").register(registry);
+        logAppend = Timer.builder("transactions.log.append").description("Time taken by the index engine to append and fsync a merge").register(registry);
+        batchSize = DistributionSummary.builder("transactions.merge.batch.size").description("Transactions in each merged batch").baseUnit("transactions").register(registry);
+        rowsScanned = DistributionSummary.builder("transactions.query.rows.scanned").description("Rows read by each query").baseUnit("rows").register(registry);
+        rowsMatched = DistributionSummary.builder("transactions.query.rows.matched").description("Rows returned by each query").baseUnit("rows").register(registry);
+        created = Counter.builder("transactions.merge.created").description("Transactions which created a stored row").register(registry);
+        updated = Counter.builder("transactions.merge.updated").description("Transactions which updated a stored row").register(registry);
+        cacheHits = Counter.builder("transactions.cache.gets").description("Query result cache lookups").tag("result", "hit").register(registry);
+        cacheMisses = Counter.builder("transactions.cache.gets").description("Query result cache lookups").tag("result", "miss").register(registry);
+        cacheEvictions = Counter.builder("transactions.cache.evictions").description("Query results evicted to make room").register(registry);
+        Gauge.builder("transactions.index.rows", indexes, loaded -> loaded.stream().mapToLong(IndexedTransactionStore::indexRows).sum())
+             .description("Rows held in the resident indexes of the index engine")
+             .baseUnit("rows")
+             .register(registry);
+        Gauge.builder("transactions.index.size", indexes, loaded -> loaded.stream().mapToLong(IndexedTransactionStore::indexBytes).sum())
+             .description("Estimated heap bytes held by the resident indexes of the index engine")
+             .baseUnit("bytes")
+             .register(registry);
+    }
+
+    /**
+     * @return metrics which record nothing
+     */
+    static TransactionMetrics noop() {
+        return new TransactionMetrics(new CompositeMeterRegistry());
+    }
+
+    /**
+     * Registers a gauge of the bytes held by the transaction files, read only when the gauge is scraped
+     *
+     * @param registry the registry to register with
+     * @param transactionFiles the transaction files to measure
+     */
+    static void bindFileSize(MeterRegistry registry, TransactionFiles transactionFiles) {
+        Gauge.builder("transactions.files.size", transactionFiles, TransactionFiles::getStoredBytes)
+             .description("Bytes held by the transaction files")
+             .baseUnit("bytes")
+             .register(registry);
+    }
+
+    /**
+     * @param store an index engine which has loaded its index, measured until it is untracked
+     */
+    void trackIndex(IndexedTransactionStore store) {
+        indexes.add(store);
+    }
+
+    /**
+     * @param store an index engine which is closing
+     */
+    void untrackIndex(IndexedTransactionStore store) {
+        indexes.remove(store);
+    }
+
+    /**
+     * Takes the read lock, recording how long it took to get
+     *
+     * @param rwLock the lock to take the read lock of
+     */
+    void lockRead(ReadWriteLock rwLock) {
+        long start = System.nanoTime();
+        rwLock.readLock().lock();
+        readLockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Takes the write lock, recording how long it took to get
+     *
+     * @param rwLock the lock to take the write lock of
+     */
+    void lockWrite(ReadWriteLock rwLock) {
+        long start = System.nanoTime();
+        rwLock.writeLock().lock();
+        writeLockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param timer the timer to record into
+     * @param start the System.nanoTime the timed work started at
+     */
+    void recordSince(Timer timer, long start) {
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a merged batch
+     *
+     * @param transactions the batch
+     * @param transactionResult the result of the merge
+     * @param start the System.nanoTime the merge started at
+     */
+    void recordMerge(Transactions transactions, TransactionResult transactionResult, long start) {
+        recordSince(merge, start);
+        batchSize.record(transactions.getEntries().size());
+        created.increment(transactionResult.getCreated());
+        updated.increment(transactionResult.getUpdated());
+    }
+
+    /**
+     * Records the rows read and returned by a query
+     *
+     * @param scanned the rows read
+     * @param matched the rows returned
+     */
+    void recordQuery(long scanned, long matched) {
+        rowsScanned.record(scanned);
+        rowsMatched.record(matched);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.dgaffney.transaction;
+
+import java.util.Locale;
+
+/**
+ * Strategies for spreading transactions over the partitions of a
+ * {@link PartitionedTransactionStore}. Every transaction with the same date and
+ * type must land in the same partition so merges never span partitions
+ */
+public enum TransactionPartitioner {
+
+    // spreads rows evenly, a query is pruned to one partition only if it names an exact date and type
+    HASH {
+        @Override
+        int partitionOf(String date, String type, int partitions) {
+            return Math.floorMod(31 * date.hashCode() + type.hashCode(), partitions);
+        }
+
+        @Override
+        int partitionOf(TransactionFilter filter, int partitions) {
+            String date = filter.getExactDate();
+            String type = filter.getExactType();
+            return date == null || type == null ? -1 : partitionOf(date, type, partitions);
+        }
+    },
+
+    // keeps a month together, a query is pruned to one partition if it names an exact date
+    MONTH {
+        @Override
+        int partitionOf(String date, String type, int partitions) {
+            return Math.floorMod(TransactionBucket.MONTH.periodOf(date).hashCode(), partitions);
+        }
+
+        @Override
+        int partitionOf(TransactionFilter filter, int partitions) {
+            String date = filter.getExactDate();
+            return date == null ? -1 : partitionOf(date, null, partitions);
+        }
+    };
+
+    /**
+     * Parses a partitioner name ignoring case
+     *
+     * @param name the name of the partitioner
+     * @return the partitioner
+     * @throws IllegalArgumentException if there is no partitioner with the name
+     */
+    public static TransactionPartitioner of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @param date the date of a transaction
+     * @param type the type of a transaction
+     * @param partitions the number of partitions
+     * @return int the partition the transaction belongs to
+     */
+    abstract int partitionOf(String date, String type, int partitions);
+
+    /**
+     * @param filter the filter of a query
+     * @param partitions the number of partitions
+     * @return int the only partition which can hold matches or -1 if any partition can
+     */
+    abstract int partitionOf(TransactionFilter filter, int partitions);
+
+}
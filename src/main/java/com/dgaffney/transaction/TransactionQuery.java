@@ -11,6 +11,10 @@ public class TransactionQuery {
     private String date = DEFAULT_MATCH_ALL;     // filter by transactions with a given date
     private String type=DEFAULT_MATCH_ALL;      // filter by transactions with a specific type
     private int limit = DEFAULT_MAX_LIMIT;      // the number of transactions to return in the response
+    private String from;                        // filter by transactions on or after a dd-MM-yyyy date
+    private String to;                          // filter by transactions on or before a dd-MM-yyyy date
+    private String cursor;                      // resume a streamed scan where an earlier response stopped
+    private String sort;                        // order matches by amount or date, such as amount,desc
 
     public TransactionQuery() {
        
@@ -58,4 +62,60 @@ public class TransactionQuery {
         this.limit = limit;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return String return the from
+     */
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @param from the from to set
+     */
+    public void setFrom(String from) {
+        this.from = from;
+    }
+
+    /**
+     * @return String return the to
+     */
+    public String getTo() {
+        return to;
+    }
+
+    /**
+     * @param to the to to set
+     */
+    public void setTo(String to) {
+        this.to = to;
+    }
+
+    /**
+     * @return String return the cursor
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * @param cursor the cursor to set
+     */
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return String return the sort
+     */
+    public String getSort() {
+        return sort;
+    }
+
+    /**
+     * @param sort the sort to set
+     */
+    public void setSort(String sort) {
+        this.sort = sort;
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.dgaffney.transaction;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded least recently used cache of query results keyed by the normalised query.
+ * Every result is tagged with the store generation it was read at and every merge
+ * moves the generation on, so a write invalidates every cached result at the cost
+ * of one increment and a stale result is dropped the next time it is looked up.
+ * The same generation versions the entity tags handed to clients
+ */
+public class TransactionQueryCache {
+
+    // generations restart from zero with the process so tags also carry when it started
+    private final long startedAt = System.currentTimeMillis();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private final int maxEntries;
+
+    private final int maxResultRows;
+
+    private final TransactionMetrics metrics;
+
+    private final Map<String, CachedResult> results;
+
+    /**
+     * @param maxEntries the most results held, zero to disable the cache
+     * @param maxResultRows the most rows a result can hold and still be cached
+     * @param metrics the metrics hits, misses and evictions are counted in
+     */
+    public TransactionQueryCache(int maxEntries, int maxResultRows, TransactionMetrics metrics) {
+        this.maxEntries = maxEntries;
+        this.maxResultRows = maxResultRows;
+        this.metrics = metrics;
+        this.results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                boolean evict = size() > TransactionQueryCache.this.maxEntries;
+                if (evict) {
+                    TransactionQueryCache.this.metrics.cacheEvictions.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * @return long the current store generation, read before running a query whose result will be cached
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Moves the store generation on, called once a merge has been published
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Builds the entity tag of the result of a query at the current generation, the tag
+     * only changes when a merge has happened since. It must be read before the query is
+     * run so a merge landing during the query leaves the result with an older tag
+     *
+     * @param query the query to tag
+     * @return the weak entity tag, weak so compressing the body doesn't change it
+     */
+    String tag(TransactionQuery query) {
+        UUID hash = UUID.nameUUIDFromBytes(key(query).getBytes(StandardCharsets.UTF_8));
+        return "W/\"" + Long.toHexString(startedAt) + '-' + Long.toHexString(generation.get())
+               + '-' + Long.toHexString(hash.getMostSignificantBits()) + Long.toHexString(hash.getLeastSignificantBits()) + '"';
+    }
+
+    /**
+     * Checks an If-None-Match header against the tag of a result, weak comparison is
+     * used as required for conditional GETs
+     *
+     * @param ifNoneMatch the header sent by the client, may be null
+     * @param tag the tag of the result
+     * @return true if the client already holds the result
+     */
+    static boolean matches(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        String opaqueTag = stripWeak(tag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || stripWeak(trimmed).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Gets the cached result of a query if it was read at the current generation
+     *
+     * @param query the query to look up
+     * @return the cached result or null if there is none
+     */
+    synchronized List<Transaction> get(TransactionQuery query) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        String key = key(query);
+        CachedResult cached = results.get(key);
+        if (cached != null && cached.generation == generation.get()) {
+            metrics.cacheHits.increment();
+            return cached.entries;
+        }
+        if (cached != null) {
+            results.remove(key);
+        }
+        metrics.cacheMisses.increment();
+        return null;
+    }
+
+    /**
+     * Caches the result of a query, a result read at a generation which has
+     * since moved on or which is too large to hold is not cached
+     *
+     * @param query the query the result is for
+     * @param readGeneration the generation read before the query was run
+     * @param entries the result of the query
+     * @return the result as it is held by the cache, shared so it can't be changed
+     */
+    synchronized List<Transaction> put(TransactionQuery query, long readGeneration, List<Transaction> entries) {
+        List<Transaction> shared = Collections.unmodifiableList(entries);
+        if (maxEntries > 0 && entries.size() <= maxResultRows && readGeneration == generation.get()) {
+            results.put(key(query), new CachedResult(readGeneration, shared));
+        }
+        return shared;
+    }
+
+    /**
+     * Normalises a query into a key, queries which select the same rows share a key.
+     * The sort is keyed as parsed so amount, amount,asc and AMOUNT, ASC share a key
+     *
+     * @throws IllegalArgumentException if the sort of the query is invalid
+     */
+    static String key(TransactionQuery query) {
+        TransactionSort sort = TransactionSort.of(query.getSort());
+        return normalise(query.getDate()) + '\u0000' + normalise(query.getType()) + '\u0000' + query.getLimit()
+               + '\u0000' + emptyIfNull(query.getFrom()) + '\u0000' + emptyIfNull(query.getTo())
+               + '\u0000' + (sort == null ? "" : sort.toString());
+    }
+
+    private static String normalise(String filter) {
+        return filter == null ? TransactionQuery.DEFAULT_MATCH_ALL : filter;
+    }
+
+    private static String emptyIfNull(String text) {
+        return text == null ? "" : text;
+    }
+
+    /**
+     * A result and the generation it was read at
+     */
+    static class CachedResult {
+
+        final long generation;
+        final List<Transaction> entries;
+
+        CachedResult(long generation, List<Transaction> entries) {
+            this.generation = generation;
+            this.entries = entries;
+        }
+    }
+
+}
@@ -1,11 +1,30 @@
 package com.dgaffney.transaction;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 public class TransactionResult {
 
+    // constant for the message of a merge which stored every transaction
+    public static final String STORED_MESSAGE = "Transactions Stored";
+
+    // constant for the message of a merge rejected as a sum of amounts would not fit in a long of cents
+    public static final String OVERFLOW_MESSAGE = "Sum of amounts out of range";
+
     private int created;
     private int updated;
     private String message;
 
+    // the transactions a merge which failed part way still stored, such as the partitions
+    // or months which were written before one failed, never sent to clients
+    private List<Transaction> storedEntries = new ArrayList<>();
+
+    // the merge a caller stopped waiting for which may still store the transactions, never sent to clients
+    private CompletableFuture<TransactionResult> pendingMerge;
+
     public TransactionResult(int created, int updated, String message){
         this.created = created;
         this.updated = updated;
@@ -54,4 +73,36 @@ public class TransactionResult {
         this.message = message;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return List<Transaction> return the transactions stored by a merge which failed part way
+     */
+    @JsonIgnore
+    public List<Transaction> getStoredEntries() {
+        return storedEntries;
+    }
+
+    /**
+     * @param storedEntries the transactions stored by a merge which failed part way to set
+     */
+    @JsonIgnore
+    public void setStoredEntries(List<Transaction> storedEntries) {
+        this.storedEntries = storedEntries;
+    }
+
+    /**
+     * @return CompletableFuture<TransactionResult> return the merge still running after the caller timed out, or null
+     */
+    @JsonIgnore
+    public CompletableFuture<TransactionResult> getPendingMerge() {
+        return pendingMerge;
+    }
+
+    /**
+     * @param pendingMerge the merge still running after the caller timed out to set
+     */
+    @JsonIgnore
+    public void setPendingMerge(CompletableFuture<TransactionResult> pendingMerge) {
+        this.pendingMerge = pendingMerge;
+    }
+
+}
@@ -0,0 +1,195 @@
+package com.dgaffney.transaction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Totals of the stored transactions maintained incrementally as batches are merged,
+ * so summaries never scan the store. A total holds the sum of the amounts in cents
+ * and the count of stored (date, type) rows, and is kept overall, per type, per date
+ * bucket and per type and date bucket. Each merged transaction updates a handful of
+ * hash entries, which is nothing next to the merge itself. Sums are exact, a batch
+ * which would take a total out of the range of a long is turned away before it is
+ * merged rather than left to wrap
+ */
+public class TransactionRollups {
+
+    private final long[] overall = new long[2];
+    private final Map<String, long[]> byType = new HashMap<>();
+    private final Map<TransactionBucket, Map<String, long[]>> byPeriod = new EnumMap<>(TransactionBucket.class);
+    private final Map<TransactionBucket, Map<String, Map<String, long[]>>> byTypeAndPeriod = new EnumMap<>(TransactionBucket.class);
+
+    public TransactionRollups() {
+        for (TransactionBucket bucket : TransactionBucket.values()) {
+            byPeriod.put(bucket, new HashMap<>());
+            byTypeAndPeriod.put(bucket, new HashMap<>());
+        }
+    }
+
+    /**
+     * Checks the totals can take a batch before it is merged
+     *
+     * @param transactions the transactions to merge
+     * @return boolean true if no total would go out of range once the batch is applied
+     */
+    synchronized boolean fits(Transactions transactions) {
+        try {
+            checkRange(totalsOf(transactions));
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Applies a merged batch to the totals, every transaction adds its amount
+     * and those which created a new stored row add to the count. The batch is
+     * totalled on its own first and checked against the totals so it is applied
+     * whole or not at all
+     *
+     * @param transactions the merged transactions, marked with whether they existed
+     * @throws ArithmeticException if a total would go out of range, such as when batches checked at the same time are both merged
+     */
+    synchronized void apply(Transactions transactions) {
+        TransactionRollups batch = totalsOf(transactions);
+        checkRange(batch);
+        add(overall, batch.overall[0], batch.overall[1]);
+        batch.byType.forEach((type, total) -> add(byType.computeIfAbsent(type, key -> new long[2]), total[0], total[1]));
+        for (TransactionBucket bucket : TransactionBucket.values()) {
+            batch.byPeriod.get(bucket).forEach((period, total) ->
+                add(byPeriod.get(bucket).computeIfAbsent(period, key -> new long[2]), total[0], total[1]));
+            batch.byTypeAndPeriod.get(bucket).forEach((type, periods) -> periods.forEach((period, total) ->
+                add(byTypeAndPeriod.get(bucket).computeIfAbsent(type, key -> new HashMap<>())
+                                               .computeIfAbsent(period, key -> new long[2]), total[0], total[1])));
+        }
+    }
+
+    /**
+     * @param transactions the transactions to total, marked with whether they existed
+     * @return TransactionRollups the totals of the batch on its own
+     */
+    private static TransactionRollups totalsOf(Transactions transactions) {
+        TransactionRollups batch = new TransactionRollups();
+        // a date and type repeated within the batch only creates a row the first time
+        Set<TransactionKey> seen = new HashSet<>();
+        for (Transaction transaction : transactions.getEntries()) {
+            boolean first = seen.add(TransactionKey.of(transaction));
+            batch.add(transaction, first && !transaction.isExisted());
+        }
+        return batch;
+    }
+
+    /**
+     * @param batch the totals of a batch
+     * @throws ArithmeticException if adding the batch would take a total out of range
+     */
+    private void checkRange(TransactionRollups batch) {
+        Math.addExact(overall[0], batch.overall[0]);
+        batch.byType.forEach((type, total) -> Math.addExact(centsOf(byType.get(type)), total[0]));
+        for (TransactionBucket bucket : TransactionBucket.values()) {
+            batch.byPeriod.get(bucket).forEach((period, total) -> Math.addExact(centsOf(byPeriod.get(bucket).get(period)), total[0]));
+            batch.byTypeAndPeriod.get(bucket).forEach((type, periods) -> {
+                Map<String, long[]> held = byTypeAndPeriod.get(bucket).get(type);
+                periods.forEach((period, total) -> Math.addExact(centsOf(held == null ? null : held.get(period)), total[0]));
+            });
+        }
+    }
+
+    private static long centsOf(long[] total) {
+        return total == null ? 0 : total[0];
+    }
+
+    /**
+     * Takes a stored row out of the totals, the row takes away its amount and one from
+     * the count, and a total left counting no rows is dropped
+     *
+     * @param row the removed row with the amount it was stored with
+     */
+    synchronized void remove(Transaction row) {
+        long cents = -row.getCents();
+        String type = row.getType();
+        String date = row.getDate();
+
+        add(overall, cents, -1);
+        subtract(byType, type, cents);
+        for (TransactionBucket bucket : TransactionBucket.values()) {
+            String period = bucket.periodOf(date);
+            subtract(byPeriod.get(bucket), period, cents);
+            Map<String, long[]> periods = byTypeAndPeriod.get(bucket).get(type);
+            if (periods != null) {
+                subtract(periods, period, cents);
+                if (periods.isEmpty()) {
+                    byTypeAndPeriod.get(bucket).remove(type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a single transaction to the totals
+     *
+     * @param transaction the transaction to add
+     * @param created true if the transaction created a new stored row
+     */
+    synchronized void add(Transaction transaction, boolean created) {
+        long cents = transaction.getCents();
+        long rows = created ? 1 : 0;
+        String type = transaction.getType();
+        String date = transaction.getDate();
+
+        add(overall, cents, rows);
+        add(byType.computeIfAbsent(type, key -> new long[2]), cents, rows);
+        for (TransactionBucket bucket : TransactionBucket.values()) {
+            String period = bucket.periodOf(date);
+            add(byPeriod.get(bucket).computeIfAbsent(period, key -> new long[2]), cents, rows);
+            add(byTypeAndPeriod.get(bucket).computeIfAbsent(type, key -> new HashMap<>())
+                                           .computeIfAbsent(period, key -> new long[2]), cents, rows);
+        }
+    }
+
+    /**
+     * Gets the totals grouped as asked, ordered by type and then by period in date order
+     *
+     * @param byTypes true to group by type
+     * @param bucket the date bucket to group by, null for no date grouping
+     * @return the totals
+     */
+    synchronized List<TransactionTotal> totals(boolean byTypes, TransactionBucket bucket) {
+        List<TransactionTotal> totals = new ArrayList<>();
+        if (byTypes && bucket != null) {
+            byTypeAndPeriod.get(bucket).forEach((type, periods) ->
+                periods.forEach((period, total) -> totals.add(new TransactionTotal(type, period, total[0], total[1]))));
+        } else if (byTypes) {
+            byType.forEach((type, total) -> totals.add(new TransactionTotal(type, null, total[0], total[1])));
+        } else if (bucket != null) {
+            byPeriod.get(bucket).forEach((period, total) -> totals.add(new TransactionTotal(null, period, total[0], total[1])));
+        } else {
+            totals.add(new TransactionTotal(null, null, overall[0], overall[1]));
+        }
+        totals.sort(Comparator.comparing((TransactionTotal total) -> total.getType(), Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                              .thenComparing(total -> total.getPeriod() == null ? "" : TransactionBucket.sortKey(total.getPeriod())));
+        return totals;
+    }
+
+    private static void subtract(Map<String, long[]> totals, String key, long cents) {
+        long[] total = totals.get(key);
+        if (total != null) {
+            add(total, cents, -1);
+            if (total[1] <= 0) {
+                totals.remove(key);
+            }
+        }
+    }
+
+    private static void add(long[] total, long cents, long rows) {
+        total[0] = Math.addExact(total[0], cents);
+        total[1] += rows;
+    }
+
+}
@@ -1,301 +1,374 @@
 package com.dgaffney.transaction;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Collections;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.StampedLock;
 
+import javax.annotation.PostConstruct;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Service
 public class TransactionService {
-    
-    ReadWriteLock rwLock = new ReentrantReadWriteLock();
 
-    /**
-     * Persists transactions to a file, this function is thread safe due to
-     * interaction with the single transaction file. This function uses a write lock
-     * to only allow one writer to write to the file at a time
-     *
-     * @param transactions the transactions to persist
-     * @return the transaction result object
-     */
-    TransactionResult persistTransactions(Transactions transactions) {
-        TransactionResult transactionResult = new TransactionResult(0, 0, "");
+    // constant for the most matching rows read under the store lock before they are written out
+    public static final int STREAM_PAGE_ROWS = 1000;
 
-        try {
-            File transactionFile = getTransactionsFile();
+    // constant for the most rows scanned under the store lock before it is released
+    public static final int STREAM_SCAN_ROWS = 64 * 1024;
 
-            String transactionsFileName = transactionFile.getName();
-            File transactionCopyFile = getTransactionsCopyFile();
+    @Autowired
+    TransactionStore transactionStore;
 
+    @Autowired
+    ObjectMapper objectMapper;
 
-            // lock the file to a single writer
-            rwLock.writeLock().lock();
-            try {
-                // write to the file and apply updates if needed
-                transactionResult = updateAndWrite(transactionFile, transactionCopyFile, transactions);
-            } finally {
-                // release the write lock
-                rwLock.writeLock().unlock();
-            }
-            // delete the original transactions file and rename the copy to be the original
-            // file name
-            if (!deleteTransactionsFile(transactionFile)) {
-                transactionResult.setMessage("Error occurred deleting");
-            }
+    @Autowired
+    TransactionMetrics transactionMetrics;
 
-            if (!renameFile(transactionCopyFile, transactionsFileName)) {
-                transactionResult.setMessage("Error occurred renaming");
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        return transactionResult;
-    }
+    @Autowired
+    TransactionQueryCache queryCache;
 
-    /**
-     * Writes transactions to the file, updates are carried out on transactions before
-     * writing them out to the csv file
-     *
-     * @param transactionFile the transaction file to read from
-     * @param transactionsCopyFile the transaction copy file to write to
-     * @param transactions the transactions to update and write to the copy file
-     * @return the transaction result
-     */
-    TransactionResult updateAndWrite(File transactionFile, File transactionsCopyFile, Transactions transactions){
-        TransactionResult transactionResult = new TransactionResult(0, 0, "No operations occurred");
-        // try with resources on stream and writer
-        try(Stream<String> fileStream = Files.lines(transactionFile.toPath()); BufferedWriter writer = new BufferedWriter(new FileWriter(transactionsCopyFile))){
-            // read from original transactions the file line by line to keep memory consumption down
-            fileStream.forEach (line -> {
-                if(!line.isEmpty()){
-                    // create a transaction from the line
-                    Transaction transactionFromFile = createTransactionFromLine(line);
-                    // update any matching transactions
-                    updateMatchingTransactions(transactions, transactionFromFile);
-                    
-                    // write the transaction out to the copy file
-                    appendToTransactionsCopyFile(writer, transactionFromFile);
-                }
-            });
-            // filter out existing transactions to get the new transactions and write them to the file
-            List<Transaction> transactionsToCreate = filterExistingTransactions(transactions);
-            transactionsToCreate.forEach(tran -> appendToTransactionsCopyFile(writer, tran) );
-            transactionResult = new TransactionResult(transactionsToCreate.size(), transactions.getEntries().size() - transactionsToCreate.size(), "Transactions Stored");
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-        return transactionResult;
-    }
+    @Value("${transactions.ingest.chunk-size:10000}")
+    int ingestChunkSize = 10000;
 
-    /**
-     * Update matching transactions that match the given transaction
-     * by summing their amounts together and marking the client transaction
-     * as having existed previously in the transaction file
-     *
-     * @param transactionsFromClient the transactions from the client
-     * @param transactionToMatch the transaction to compare against the client transactions
-     */
-    void updateMatchingTransactions(Transactions transactionsFromClient, Transaction transactionToMatch){
-        // with each line compare it against each transaction to see if there are duplicates
-        transactionsFromClient.getEntries().forEach(transaction ->{
-            if(transaction.equals(transactionToMatch)){
-                // if the transactions are the same sum the transactions
-                transactionToMatch.sumTransactions(transaction);
-                transaction.setExisted(true);
-            }
-        });
-    }
+    TransactionRollups transactionRollups = new TransactionRollups();
+
+    // held shared from the start of each merge until it is applied to the rollups, possibly
+    // on another thread, and taken exclusively by a removal to wait for the merges before it
+    final StampedLock mergesInFlight = new StampedLock();
 
     /**
-     * Gets a csv file from the users temp directory
-     * with the supplied name
-     *
-     * @param name the name of the file to look for
-     * @return the file
+     * Builds the rollups from the stored transactions, after this they
+     * are kept up to date as each batch is persisted and as the store
+     * removes rows on its own. The store is loaded when its bean is created
+     * and the web server only starts once every bean is ready, so the health
+     * endpoint answers a readiness probe only once loading is complete
      */
-    File getTempDirFile(String name){
-        return new File(System.getProperty("java.io.tmpdir"), name + ".csv");
+    @PostConstruct
+    void loadRollups() throws Exception {
+        transactionStore.addRemovalListener(this::rowsRemoved);
+        TransactionRollups rollups = new TransactionRollups();
+        transactionStore.forEach((tran, nextOffset) -> {
+            rollups.add(tran, true);
+            return true;
+        });
+        transactionRollups = rollups;
     }
 
     /**
-     * Creates a temp csv file which will be deleted
-     * when the JVM is terminated. Should be used
-     * for creating the transaction files
+     * Takes rows the store removed on its own, such as expired months, out of the
+     * rollups and invalidates cached query results which may hold them. A merge into
+     * the rows may have been stored before they were removed but not yet applied to
+     * the rollups, so the merges in flight are waited for first, otherwise the rows
+     * would be taken out before the merge was added and leave part of it behind. A
+     * merge started after the removal can't reach the rows as the store takes them out
+     * for good. The rows are streamed from the removed store one at a time
      *
-     * @param name the name to use for the file
-     * @return the temp file
+     * @param removed the store of the removed rows
      */
-    File createTempCsvFile(String name) throws Exception {
-        File tempCsv = getTempDirFile(name);
-        tempCsv.createNewFile();
-        tempCsv.setReadable(true);
-        tempCsv.setWritable(true);
-        return tempCsv;
+    void rowsRemoved(TransactionStore removed) throws Exception {
+        mergesInFlight.unlockWrite(mergesInFlight.writeLock());
+        queryCache.invalidate();
+        removed.forEach((row, nextOffset) -> {
+            transactionRollups.remove(row);
+            return true;
+        });
     }
 
     /**
-     * Gets a temp csv file by checking to see if the file
-     * already exists in the temp directory. If it does the file
-     * is returned, otherwise the file is created as a temp file
-     * marked for deletion and returned
+     * Persists transactions and waits until they are merged, a store with a bounded
+     * queue of merges is waited on for room rather than rejecting the batch. A batch
+     * which would take a total of the rollups out of range is rejected before it is merged
      *
-     * @param name the name of the file to check for
-     * @return the temp csv file
+     * @see #persistTransactionsAsync(Transactions)
+     * @param transactions the transactions to persist
+     * @return the transaction result object
      */
-    File getTempCsvFile(String name) throws Exception {
-        File file = getTempDirFile(name);
-        if(!file.exists()){
-            file = createTempCsvFile(name);
+    TransactionResult persistTransactions(Transactions transactions) {
+        if (!transactionRollups.fits(transactions)) {
+            return new TransactionResult(0, 0, TransactionResult.OVERFLOW_MESSAGE);
         }
-        return file;
+        long stamp = mergesInFlight.readLock();
+        TransactionResult transactionResult;
+        long start = System.nanoTime();
+        try {
+            transactionResult = transactionStore.merge(transactions);
+        } catch (RuntimeException e) {
+            mergesInFlight.unlockRead(stamp);
+            throw e;
+        }
+        return merged(transactions, transactionResult, start, stamp);
     }
 
     /**
-     * Gets the transaction file which is created
-     * or retrieved depending on if it already exists
+     * Persists transactions by merging them into the configured store,
+     * the store is responsible for guarding concurrent writers. Once the
+     * merge has stored the batch it is applied to the rollups and cached
+     * query results are invalidated, on whichever thread completed the
+     * merge, so a group commit writer hands back results without a thread
+     * waiting on each batch. A merge which failed part way applies only
+     * the transactions the store reports as stored. A batch which would take a total
+     * of the rollups out of range is rejected before it is merged
      *
-     * @see #createTempCsvFile(java.lang.String)
-     * @return the transaction file
+     * @param transactions the transactions to persist
+     * @return the future completed with the transaction result object
+     * @throws java.util.concurrent.RejectedExecutionException if the store has too many merges queued to take the batch
      */
-    File getTransactionsFile() throws Exception {
-        return getTempCsvFile("transactions");
+    CompletableFuture<TransactionResult> persistTransactionsAsync(Transactions transactions) {
+        if (!transactionRollups.fits(transactions)) {
+            return CompletableFuture.completedFuture(new TransactionResult(0, 0, TransactionResult.OVERFLOW_MESSAGE));
+        }
+        long stamp = mergesInFlight.readLock();
+        CompletableFuture<TransactionResult> merging;
+        long start = System.nanoTime();
+        try {
+            merging = transactionStore.mergeAsync(transactions);
+        } catch (RuntimeException e) {
+            mergesInFlight.unlockRead(stamp);
+            throw e;
+        }
+        return merging.whenComplete((transactionResult, error) -> {
+            if (error != null) {
+                mergesInFlight.unlockRead(stamp);
+            }
+        }).thenApply(transactionResult -> merged(transactions, transactionResult, start, stamp));
     }
 
     /**
-     * Gets the transaction copy file which is created
-     * or retrieved depending on if it already exists
+     * Applies what a merge stored to the rollups and invalidates cached query results,
+     * then lets removals waiting on the merge go ahead. A merge the caller timed out on
+     * is applied, and lets removals go ahead, once it finishes
      *
-     * @see #createTempCsvFile(java.lang.String)
-     * @return the transaction copy file
+     * @param transactions the transactions merged
+     * @param transactionResult the result of the merge
+     * @param start the nano time the merge started
+     * @param stamp the stamp of the merge in flight
+     * @return the transaction result
      */
-    File getTransactionsCopyFile() throws Exception {
-        return getTempCsvFile("transactions-copy");
+    private TransactionResult merged(Transactions transactions, TransactionResult transactionResult, long start, long stamp) {
+        CompletableFuture<TransactionResult> pendingMerge = transactionResult.getPendingMerge();
+        try {
+            transactionMetrics.recordMerge(transactions, transactionResult, start);
+            applyStored(transactions, transactionResult);
+        } finally {
+            if (pendingMerge == null) {
+                mergesInFlight.unlockRead(stamp);
+            }
+        }
+        if (pendingMerge != null) {
+            pendingMerge.whenComplete((late, error) -> {
+                try {
+                    if (late != null) {
+                        applyStored(transactions, late);
+                    }
+                } finally {
+                    mergesInFlight.unlockRead(stamp);
+                }
+            });
+        }
+        return transactionResult;
     }
 
     /**
-     * Deletes a transaction file
+     * Applies what a merge stored to the rollups. Batches checked against the rollups at
+     * the same time can together take a total out of range, the batch is then stored but
+     * left out of the rollups and the error is logged, as no total in range holds it
      *
-     * @param transactionFile the file to delete
-     * @return true if the file got deleted, false otherwise
+     * @param transactions the transactions merged
+     * @param transactionResult the result of the merge
      */
-    boolean deleteTransactionsFile(File transactionFile){
-        return transactionFile.delete();
+    private void applyStored(Transactions transactions, TransactionResult transactionResult) {
+        // even a failed merge may have stored part of the batch
+        queryCache.invalidate();
+        try {
+            if (TransactionResult.STORED_MESSAGE.equals(transactionResult.getMessage())) {
+                transactionRollups.apply(transactions);
+            } else if (!transactionResult.getStoredEntries().isEmpty()) {
+                Transactions stored = new Transactions();
+                stored.setEntries(transactionResult.getStoredEntries());
+                transactionRollups.apply(stored);
+            }
+        } catch (ArithmeticException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Renames the given file with the supplied name
+     * Ingests transactions read from a stream one row at a time, each row is validated as it
+     * is read and rows are merged in chunks so memory stays bounded by the chunk size however
+     * large the upload is. Reading stops at the first invalid row, the chunks merged before it
+     * stay merged and the result counts them
      *
-     * @param transactionFile the file to rename
-     * @param newName the new name for the file
-     * @return true if the file was renamed, false otherwise
+     * @param body the stream to read the rows from
+     * @param format the format of the rows
+     * @return the transaction result object totalled over every chunk
      */
-    boolean renameFile(File transactionFile, String newName){
-        boolean renamed;
+    TransactionResult ingestTransactions(InputStream body, TransactionFormat format) {
+        TransactionResult transactionResult = new TransactionResult(0, 0, TransactionResult.STORED_MESSAGE);
+        List<Transaction> chunk = new ArrayList<>(ingestChunkSize);
+        long[] rows = {0};
         try {
-            Path copyPath = Files.move(transactionFile.toPath(), transactionFile.toPath().resolveSibling(newName));
-            renamed = copyPath.toFile().exists();
+            TransactionCsvCodec.readLines(Channels.newChannel(body), (bytes, start, end) -> {
+                rows[0]++;
+                if (isBlank(bytes, start, end) || format.isComment(bytes, start, end)) {
+                    return true;
+                }
+                Transaction transaction = format.readRow(bytes, start, end, objectMapper);
+                String invalid = transaction == null ? "can't be read" : TransactionValidator.validate(transaction);
+                if (invalid != null) {
+                    transactionResult.setMessage("Invalid row " + rows[0] + ": " + invalid);
+                    return false;
+                }
+                // the flag is set by the merge, never by the client
+                transaction.setExisted(false);
+                chunk.add(transaction);
+                return chunk.size() < ingestChunkSize || mergeChunk(chunk, transactionResult);
+            });
+            if (!chunk.isEmpty() && TransactionResult.STORED_MESSAGE.equals(transactionResult.getMessage())) {
+                mergeChunk(chunk, transactionResult);
+            }
         } catch (Exception e) {
             e.printStackTrace();
-            renamed = false;
+            transactionResult.setMessage("Error occurred reading");
         }
-        return renamed;
+        return transactionResult;
     }
 
     /**
-     * Creates a transaction object from a line in the transaction file
+     * Merges a chunk of ingested transactions and adds its counts to the running result
      *
-     * @param line the line to use for creating the transaction object
-     * @return the transaction object created from the line
+     * @return true if the chunk was stored
      */
-    Transaction createTransactionFromLine(String line){
-        String[] attributes = line.split(",");
-        return new Transaction(attributes[0], attributes[1], attributes[2]);
+    private boolean mergeChunk(List<Transaction> chunk, TransactionResult transactionResult) {
+        Transactions transactions = new Transactions();
+        transactions.setEntries(chunk);
+        TransactionResult chunkResult = persistTransactions(transactions);
+        transactionResult.setCreated(transactionResult.getCreated() + chunkResult.getCreated());
+        transactionResult.setUpdated(transactionResult.getUpdated() + chunkResult.getUpdated());
+        transactionResult.setMessage(chunkResult.getMessage());
+        chunk.clear();
+        return TransactionResult.STORED_MESSAGE.equals(chunkResult.getMessage());
     }
 
-    /**
-     * Gets all the transactions which did not previously exist
-     *
-     * @param transactions the transaction object to filter from
-     * @return a list of transactions which can be considered new transactions
-     */
-    List<Transaction> filterExistingTransactions(Transactions transactions){
-        return transactions.getEntries().stream()
-                                        .filter(t -> !t.isExisted())
-                                        .collect(Collectors.toList());
+    private static boolean isBlank(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] != ' ' && bytes[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
-     * Append a transaction to the transaction copy file
-     *
-     * @param transactionsCopyFile the transaction copy file
-     * @param transaction the transaction to append to the file
+     * @param transactionQuery the query to tag
+     * @return the entity tag of the result of the query as the store stands now
      */
-    void appendToTransactionsCopyFile(BufferedWriter writer, Transaction transaction) {
-        try {
-            writer.write(transaction.toCsv());
-            writer.newLine();
-            writer.flush();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    String getTransactionsTag(TransactionQuery transactionQuery) {
+        return queryCache.tag(transactionQuery);
     }
 
     /**
-     * Gets transactions from the file using the transaction query object
+     * Gets transactions from the store using the transaction query object, a query
+     * repeated with no merge in between is answered from the query cache
      *
      * @param transactionQuery the query params to use as a filter
      * @return the transactions matching the params
      */
     Transactions getTransactions(TransactionQuery transactionQuery) throws Exception {
         Transactions transactions = new Transactions();
-        File transactionFile = getTransactionsFile();
 
-        // get all transactions limited to the supplied or default limit and matching the supplied filters
-        transactions.setEntries(filterTransactions(transactionFile, transactionQuery));
+        List<Transaction> entries = queryCache.get(transactionQuery);
+        if (entries == null) {
+            // read the generation first so a merge landing during the query keeps its result out of the cache
+            long generation = queryCache.generation();
+            // get all transactions limited to the supplied or default limit and matching the supplied filters
+            TransactionSort sort = TransactionSort.of(transactionQuery.getSort());
+            entries = queryCache.put(transactionQuery, generation, sort == null ? transactionStore.find(transactionQuery)
+                                                                                : transactionStore.findSorted(transactionQuery, sort));
+        }
+        transactions.setEntries(entries);
         return transactions;
     }
 
     /**
-     * Filters transactions within the supplied transaction file using the
-     * supplied transaction filter object and returns the transactions as a list
-     * this function uses read locks to allow concurrent readers to read the file
+     * Streams the transactions matching the query, rows are written as each page of the
+     * scan is read rather than collected into one list. The store lock is only held
+     * while a page is read so a slow client never holds up merges. The filter and the
+     * cursor are checked before anything is written so a bad query fails as a whole.
+     * Rows are streamed in the order the store holds them so the cursor can resume the
+     * scan, a sorted query is rejected rather than answered out of order
      *
-     * @param transactionFile the transaction file to read from
-     * @param transactionFilter the transaction filter to filter transactions
-     * @return a list of filtered transactions form the transaction file
+     * @param transactionQuery the query params to use as a filter, the cursor to resume from and the limit
+     * @param format the format to write the transactions in
+     * @return the body writing the transactions
+     * @throws java.time.DateTimeException if the from or to date of the query is invalid
+     * @throws IllegalArgumentException if the cursor of the query is invalid or the query is sorted
      */
-    List<Transaction> filterTransactions(File transactionFile, TransactionQuery query) throws Exception{
-        List<Transaction> entries = Collections.emptyList();
-        // create the transaction filter
-        TransactionFilter transactionFilter = new TransactionFilter(query.getDate(), query.getType());
+    StreamingResponseBody streamTransactions(TransactionQuery transactionQuery, TransactionFormat format) {
+        if (TransactionSort.of(transactionQuery.getSort()) != null) {
+            throw new IllegalArgumentException("Streamed results can't be sorted, request application/json to sort");
+        }
+        TransactionFilter transactionFilter = TransactionFilter.of(transactionQuery);
+        long start = TransactionCursor.decode(transactionQuery.getCursor());
 
-        Stream<Transaction> streamLines = Files.lines(transactionFile.toPath())   // use stream here to lazily fetch data
-                                          .limit(query.getLimit())   // limit the number of lines processed
-                                          .map(line -> createTransactionFromLine(line)) //map to transaction object
-                                          .filter(tran -> tran.getDate().matches(transactionFilter.getDateFilter())) // see if date matches filter regex
-                                          .filter(tran -> tran.getType().matches(transactionFilter.getTypeFilter())); // see if type matches filter regex
+        return out -> {
+            long position = start;
+            int remaining = transactionQuery.getLimit();
+            boolean more = true;
+            while (remaining > 0 && more) {
+                List<Transaction> page = new ArrayList<>();
+                int pageRows = Math.min(remaining, STREAM_PAGE_ROWS);
+                long[] next = {position};
+                int[] scanned = {0};
+                boolean[] stopped = {false};
+                try {
+                    transactionStore.scan(position, (tran, nextOffset) -> {
+                        if (transactionFilter.test(tran)) {
+                            page.add(tran);
+                        }
+                        next[0] = nextOffset;
+                        // stop the page once it is full or has held the lock for long enough
+                        stopped[0] = page.size() >= pageRows || ++scanned[0] >= STREAM_SCAN_ROWS;
+                        return !stopped[0];
+                    });
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+                format.writeRows(page, objectMapper, out);
+                out.flush();
+                remaining -= page.size();
+                position = next[0];
+                more = stopped[0];
+            }
+            // the limit stopped the scan, hand back where to carry on from
+            if (more) {
+                format.writeCursor(TransactionCursor.encode(position), objectMapper, out);
+            }
+        };
+    }
 
-        // lock the file to allow concurrent readers
-        rwLock.readLock().lock();
-        try{
-            // read access to the file occurs here on the stream as collect is a terminal operation
-            entries = streamLines.collect(Collectors.toList());
-            // close off the stream to free up the file
-            streamLines.close();
-        }finally{
-            // release the read lock
-            rwLock.readLock().unlock();
-        }
-        return entries;
+    /**
+     * Gets the totals of the stored transactions grouped as the summary query asks,
+     * the totals come from the rollups so no transactions are read
+     *
+     * @param summaryQuery the grouping to use
+     * @return the summary of the totals
+     */
+    TransactionSummary getSummary(TransactionSummaryQuery summaryQuery) {
+        TransactionSummary summary = new TransactionSummary();
+        summary.setEntries(transactionRollups.totals(summaryQuery.isByType(), summaryQuery.toBucket()));
+        return summary;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,144 @@
+package com.dgaffney.transaction;
+
+import java.time.DateTimeException;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * The order a query asks for its matches in, by amount or by date either ascending or
+ * descending. The order is total so a top K taken with a bounded heap is the same as
+ * the first K of a full sort: rows with a real date come before rows without one in
+ * either direction, ties on the sorted field are broken by date and then by type
+ * ascending, and no two stored rows share a date and type
+ */
+public final class TransactionSort implements Comparator<TransactionSort.Ranked> {
+
+    // constant for the key of rows whose date is not a real date
+    private static final int UNDATED = Integer.MAX_VALUE;
+
+    /**
+     * The fields a query can be sorted by
+     */
+    public enum Field {
+        AMOUNT,
+        DATE
+    }
+
+    private final Field field;
+    private final boolean descending;
+
+    public TransactionSort(Field field, boolean descending) {
+        this.field = field;
+        this.descending = descending;
+    }
+
+    /**
+     * Parses a sort parameter, the field optionally followed by a comma and asc or desc
+     *
+     * @param sort the sort parameter such as amount,desc or date
+     * @return the sort or null if the parameter is blank
+     * @throws IllegalArgumentException if the field or direction is unknown
+     */
+    public static TransactionSort of(String sort) {
+        if (sort == null || sort.trim().isEmpty()) {
+            return null;
+        }
+        String[] parts = sort.split(",", 2);
+        Field field = Field.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+        String direction = parts.length > 1 ? parts[1].trim().toLowerCase(Locale.ROOT) : "asc";
+        if (!direction.equals("asc") && !direction.equals("desc")) {
+            throw new IllegalArgumentException("Unknown sort direction: " + parts[1]);
+        }
+        return new TransactionSort(field, direction.equals("desc"));
+    }
+
+    /**
+     * @return Field return the field
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return boolean return the descending
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return String the sort as a sort parameter in its canonical form such as amount,desc
+     */
+    @Override
+    public String toString() {
+        return field.name().toLowerCase(Locale.ROOT) + (descending ? ",desc" : ",asc");
+    }
+
+    /**
+     * Works out the keys a row is sorted on once so comparisons don't parse its date again
+     *
+     * @param row the row to rank
+     * @return the row with its sort keys
+     */
+    Ranked rank(Transaction row) {
+        int day;
+        try {
+            day = TransactionDates.toEpochDay(row.getDate());
+        } catch (DateTimeException e) {
+            day = UNDATED;
+        }
+        return new Ranked(row, day);
+    }
+
+    /**
+     * Compares a row not yet built with a ranked row on whether it has a real date and
+     * on the sorted field alone, a row comparing after on these compares after overall
+     *
+     * @param cents the amount of the row in cents
+     * @param dated true if the date of the row is a real date
+     * @param ranked the ranked row to compare with
+     * @return int negative, zero or positive as the row comes before, ties with or comes after
+     */
+    int comparePrimary(long cents, boolean dated, Ranked ranked) {
+        int order = Boolean.compare(!dated, ranked.day == UNDATED);
+        if (order != 0 || field != Field.AMOUNT) {
+            return order;
+        }
+        order = Long.compare(cents, ranked.row.getCents());
+        return descending ? -order : order;
+    }
+
+    @Override
+    public int compare(Ranked a, Ranked b) {
+        // rows without a real date go last whichever way the field is sorted
+        int order = Boolean.compare(a.day == UNDATED, b.day == UNDATED);
+        if (order != 0) {
+            return order;
+        }
+        order = field == Field.AMOUNT ? Long.compare(a.row.getCents(), b.row.getCents()) : Integer.compare(a.day, b.day);
+        if (order != 0) {
+            return descending ? -order : order;
+        }
+        order = Integer.compare(a.day, b.day);
+        if (order != 0) {
+            return order;
+        }
+        order = a.row.getDate().compareTo(b.row.getDate());
+        return order != 0 ? order : a.row.getType().compareTo(b.row.getType());
+    }
+
+    /**
+     * A row with the keys it is sorted on
+     */
+    static class Ranked {
+
+        final Transaction row;
+        final int day;
+
+        Ranked(Transaction row, int day) {
+            this.row = row;
+            this.day = day;
+        }
+    }
+
+}
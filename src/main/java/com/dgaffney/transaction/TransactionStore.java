@@ -0,0 +1,125 @@
+package com.dgaffney.transaction;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A store engine which transactions are merged into and queried from,
+ * the engine in use is chosen with the transactions.store property
+ */
+public interface TransactionStore {
+
+    /**
+     * Receives the rows a store removes on its own rather than through a merge,
+     * such as the months taken out by a retention policy
+     */
+    interface RemovalListener {
+
+        /**
+         * Called once the rows are out of the store, so no query or merge reaches them any
+         * more, and before they are archived or deleted. The rows are read from the store
+         * they were removed with, so they can be streamed rather than held at once
+         *
+         * @param removed the store of the rows removed, with the amounts they were stored with, only readable during the call
+         */
+        void removed(TransactionStore removed) throws Exception;
+    }
+
+    /**
+     * Merges the supplied transactions into the store, transactions with
+     * the same date and type as a stored transaction have their amounts summed
+     *
+     * @param transactions the transactions to merge
+     * @return the transaction result
+     */
+    TransactionResult merge(Transactions transactions);
+
+    /**
+     * Merges the supplied transactions, completing the future once they are stored.
+     * Stores merge on the calling thread, a store queueing merges for a writer of its
+     * own hands back the future of the queued batch so the caller is not held while
+     * it waits
+     *
+     * @param transactions the transactions to merge
+     * @return the future completed with the transaction result
+     */
+    default CompletableFuture<TransactionResult> mergeAsync(Transactions transactions) {
+        return CompletableFuture.completedFuture(merge(transactions));
+    }
+
+    /**
+     * Checks whether the store can take a batch without merging it, so a caller
+     * combining batches can turn away a batch the store would reject as a whole
+     *
+     * @param transactions the transactions to check
+     * @return the message rejecting the batch or null if the store can take it
+     */
+    default String validate(Transactions transactions) {
+        return null;
+    }
+
+    /**
+     * Finds the stored transactions matching the supplied query
+     *
+     * @param query the query params to use as a filter
+     * @return the transactions matching the params
+     */
+    List<Transaction> find(TransactionQuery query) throws Exception;
+
+    /**
+     * Finds the first stored transactions matching the supplied query in the supplied
+     * order, up to the limit of the query. Every stored transaction is streamed through
+     * a {@link TransactionTopK} so only the limit of rows is ever held, engines which
+     * can walk their rows in order override this to stop early
+     *
+     * @param query the query params to use as a filter
+     * @param sort the order to return the matches in
+     * @return the first transactions matching the params in sort order
+     */
+    default List<Transaction> findSorted(TransactionQuery query, TransactionSort sort) throws Exception {
+        TransactionFilter transactionFilter = TransactionFilter.of(query);
+        TransactionTopK topK = new TransactionTopK(sort, query.getLimit());
+        forEach((row, nextOffset) -> {
+            if (transactionFilter.test(row)) {
+                topK.offer(row);
+            }
+            return true;
+        });
+        return topK.result();
+    }
+
+    /**
+     * Visits the stored transactions in the order the store holds them, starting at a
+     * position handed out as the next offset of an earlier visit. What a position means
+     * is up to the engine, a byte offset, a row number or a record number, so callers
+     * treat it as opaque
+     *
+     * @param position the position to start at, zero for the first transaction
+     * @param handler the handler to receive each transaction, returning false stops the visit
+     */
+    void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception;
+
+    /**
+     * Visits every stored transaction in the order the store holds them
+     *
+     * @param handler the handler to receive each transaction, returning false stops the visit
+     */
+    default void forEach(TransactionCsvCodec.RowHandler handler) throws Exception {
+        scan(0, handler);
+    }
+
+    /**
+     * Registers a listener told about rows the store removes on its own, stores which
+     * only ever change through merges never call it
+     *
+     * @param listener the listener to register
+     */
+    default void addRemovalListener(RemovalListener listener) {
+    }
+
+    /**
+     * Releases any resources held by the store, called when the application shuts down
+     */
+    default void close() {
+    }
+}
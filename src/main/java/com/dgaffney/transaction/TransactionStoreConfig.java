@@ -0,0 +1,209 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TransactionStoreConfig {
+
+    // constant for the store engine which keeps a resident index
+    public static final String INDEX_STORE = "index";
+
+    // constant for the store engine which rewrites the csv file on every merge
+    public static final String CSV_STORE = "csv";
+
+    // constant for the store engine which keeps memory mapped binary columns
+    public static final String COLUMNAR_STORE = "columnar";
+
+    @Value("${transactions.store:" + INDEX_STORE + "}")
+    String store;
+
+    @Value("${transactions.log.segment-bytes:67108864}")
+    long logSegmentBytes;
+
+    @Value("${transactions.log.compaction-interval-ms:60000}")
+    long compactionIntervalMillis;
+
+    @Value("${transactions.load.chunk-bytes:8388608}")
+    long loadChunkBytes;
+
+    @Value("${transactions.checkpoint.enabled:true}")
+    boolean checkpoints;
+
+    @Value("${transactions.scan.parallel-threshold-bytes:268435456}")
+    long parallelScanThresholdBytes;
+
+    @Value("${transactions.scan.chunk-bytes:16777216}")
+    long scanChunkBytes;
+
+    @Value("${transactions.partitions:1}")
+    int partitions;
+
+    @Value("${transactions.partitioner:hash}")
+    String partitioner;
+
+    @Value("${transactions.monthly-partitions.enabled:false}")
+    boolean monthlyPartitions;
+
+    @Value("${transactions.retention.months:0}")
+    int retentionMonths;
+
+    @Value("${transactions.retention.action:" + MonthlyTransactionStore.ARCHIVE + "}")
+    String retentionAction;
+
+    @Value("${transactions.retention.archive-directory:}")
+    String retentionArchiveDirectory;
+
+    @Value("${transactions.retention.interval-ms:3600000}")
+    long retentionIntervalMillis;
+
+    @Value("${transactions.cache.max-entries:256}")
+    int cacheMaxEntries;
+
+    @Value("${transactions.cache.max-result-rows:10000}")
+    int cacheMaxResultRows;
+
+    @Value("${transactions.group-commit.enabled:true}")
+    boolean groupCommit;
+
+    @Value("${transactions.group-commit.max-delay-ms:0}")
+    long groupCommitMaxDelayMillis;
+
+    @Value("${transactions.group-commit.max-batch-size:10000}")
+    int groupCommitMaxBatchSize;
+
+    @Value("${transactions.group-commit.merge-timeout-ms:60000}")
+    long groupCommitMergeTimeoutMillis;
+
+    @Value("${transactions.executor.write.pending-batches:256}")
+    int groupCommitMaxPendingBatches;
+
+    @Value("${transactions.executor.write.pending-rows:1000000}")
+    long groupCommitMaxPendingRows;
+
+    // runs the log compactions of every index store this config creates, however many partitions or months there are
+    ScheduledExecutorService compactor;
+
+    @Bean
+    public TransactionFiles transactionFiles() {
+        return new TransactionFiles();
+    }
+
+    /**
+     * Creates the meters recorded on the storage hot paths, published through
+     * the actuator prometheus endpoint
+     *
+     * @param meterRegistry the registry of the application
+     * @param transactionFiles the transaction files whose size is gauged
+     * @return the transaction metrics
+     */
+    @Bean
+    public TransactionMetrics transactionMetrics(MeterRegistry meterRegistry, TransactionFiles transactionFiles) {
+        TransactionMetrics.bindFileSize(meterRegistry, transactionFiles);
+        return new TransactionMetrics(meterRegistry);
+    }
+
+    /**
+     * Creates the cache of query results, invalidated by every merge
+     *
+     * @param transactionMetrics the metrics cache statistics are counted in
+     * @return the query cache
+     */
+    @Bean
+    public TransactionQueryCache transactionQueryCache(TransactionMetrics transactionMetrics) {
+        return new TransactionQueryCache(cacheMaxEntries, cacheMaxResultRows, transactionMetrics);
+    }
+
+    /**
+     * Creates the store engine selected by the transactions.store property, split into a
+     * partition per month when monthly partitions are enabled or otherwise into partitions
+     * when the transactions.partitions property is more than one, and with merges
+     * funnelled through a group commit writer unless disabled
+     *
+     * @param transactionFiles the transaction files used by the engine
+     * @return the transaction store
+     */
+    @Bean
+    public TransactionStore transactionStore(TransactionFiles transactionFiles, TransactionMetrics transactionMetrics) throws Exception {
+        TransactionStore transactionStore;
+        if (monthlyPartitions) {
+            MonthlyTransactionStore monthlyStore = new MonthlyTransactionStore(transactionFiles, files -> createStore(files, transactionMetrics));
+            monthlyStore.retentionMonths = retentionMonths;
+            monthlyStore.retentionAction = retentionAction;
+            if (!retentionArchiveDirectory.isEmpty()) {
+                monthlyStore.archiveDirectory = new File(retentionArchiveDirectory);
+            }
+            monthlyStore.load(retentionIntervalMillis);
+            transactionStore = monthlyStore;
+        } else if (partitions <= 1) {
+            transactionStore = createStore(transactionFiles, transactionMetrics);
+        } else {
+            List<TransactionStore> partitionStores = new ArrayList<>(partitions);
+            for (int partition = 0; partition < partitions; partition++) {
+                partitionStores.add(createStore(transactionFiles.getPartitionFiles(partition), transactionMetrics));
+            }
+            transactionStore = new PartitionedTransactionStore(partitionStores, TransactionPartitioner.of(partitioner));
+        }
+        if (groupCommit) {
+            GroupCommitTransactionStore groupCommitStore = new GroupCommitTransactionStore(transactionStore, groupCommitMaxDelayMillis, groupCommitMaxBatchSize);
+            groupCommitStore.mergeTimeoutMillis = groupCommitMergeTimeoutMillis;
+            groupCommitStore.maxPendingBatches = groupCommitMaxPendingBatches;
+            groupCommitStore.maxPendingRows = groupCommitMaxPendingRows;
+            transactionStore = groupCommitStore;
+        }
+        return transactionStore;
+    }
+
+    /**
+     * @return ScheduledExecutorService the compactor shared by the index stores, created with the first of them
+     */
+    private synchronized ScheduledExecutorService sharedCompactor() {
+        if (compactor == null) {
+            compactor = IndexedTransactionStore.newCompactor();
+        }
+        return compactor;
+    }
+
+    /**
+     * Creates a single store of the engine selected by the transactions.store property
+     *
+     * @param transactionFiles the transaction files used by the engine
+     * @param transactionMetrics the metrics the engine records into
+     * @return the transaction store
+     */
+    TransactionStore createStore(TransactionFiles transactionFiles, TransactionMetrics transactionMetrics) throws Exception {
+        switch (store) {
+            case CSV_STORE:
+                CsvTransactionStore csvStore = new CsvTransactionStore(transactionFiles);
+                csvStore.metrics = transactionMetrics;
+                csvStore.parallelScanThresholdBytes = parallelScanThresholdBytes;
+                csvStore.scanChunkBytes = scanChunkBytes;
+                return csvStore;
+            case COLUMNAR_STORE:
+                ColumnarTransactionStore columnarStore = new ColumnarTransactionStore(transactionFiles.getDirectory());
+                columnarStore.metrics = transactionMetrics;
+                return columnarStore;
+            case INDEX_STORE:
+                TransactionLog transactionLog = new TransactionLog(transactionFiles, logSegmentBytes);
+                transactionLog.loadChunkBytes = loadChunkBytes;
+                transactionLog.checkpoints = checkpoints;
+                IndexedTransactionStore indexedStore = new IndexedTransactionStore(transactionFiles, transactionLog);
+                indexedStore.metrics = transactionMetrics;
+                indexedStore.compactor = sharedCompactor();
+                indexedStore.sharedCompactor = true;
+                indexedStore.load(compactionIntervalMillis);
+                return indexedStore;
+            default:
+                throw new IllegalArgumentException("Unknown transaction store: " + store);
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.dgaffney.transaction;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TransactionSummary {
+
+    private List<TransactionTotal> entries;
+
+    public TransactionSummary() {
+        this.entries = Collections.emptyList();
+    }
+
+    /**
+     * @return List<TransactionTotal> return the entries
+     */
+    public List<TransactionTotal> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param entries the entries to set
+     */
+    public void setEntries(List<TransactionTotal> entries) {
+        this.entries = entries;
+    }
+
+}
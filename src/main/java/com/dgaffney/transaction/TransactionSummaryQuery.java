@@ -0,0 +1,48 @@
+package com.dgaffney.transaction;
+
+public class TransactionSummaryQuery {
+
+    private boolean byType = true;          // group the totals by type
+    private String bucket;                  // group the totals by a day, month or year date bucket
+
+    public TransactionSummaryQuery() {
+
+    }
+
+    /**
+     * @return boolean return the byType
+     */
+    public boolean isByType() {
+        return byType;
+    }
+
+    /**
+     * @param byType the byType to set
+     */
+    public void setByType(boolean byType) {
+        this.byType = byType;
+    }
+
+    /**
+     * @return String return the bucket
+     */
+    public String getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @param bucket the bucket to set
+     */
+    public void setBucket(String bucket) {
+        this.bucket = bucket;
+    }
+
+    /**
+     * @return TransactionBucket the date bucket to group by, null for no date grouping
+     * @throws IllegalArgumentException if the bucket is not day, month or year
+     */
+    TransactionBucket toBucket() {
+        return bucket == null || bucket.isEmpty() ? null : TransactionBucket.of(bucket);
+    }
+
+}
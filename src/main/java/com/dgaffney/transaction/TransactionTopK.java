@@ -0,0 +1,79 @@
+package com.dgaffney.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the first K rows in a {@link TransactionSort} order out of a stream of rows
+ * of any length. The rows are held in a heap with the last kept row at its head, so
+ * a row is either turned away after one comparison or replaces the head, and memory
+ * never grows past K rows however many are offered
+ */
+public class TransactionTopK {
+
+    private final TransactionSort sort;
+    private final int limit;
+    private final PriorityQueue<TransactionSort.Ranked> heap;
+
+    public TransactionTopK(TransactionSort sort, int limit) {
+        this.sort = sort;
+        this.limit = Math.max(limit, 0);
+        this.heap = new PriorityQueue<>(Math.max(1, Math.min(this.limit, 1024)), sort.reversed());
+    }
+
+    /**
+     * Offers a row, it is kept if it is among the first K rows offered so far
+     *
+     * @param row the row to offer
+     */
+    public void offer(Transaction row) {
+        if (limit == 0) {
+            return;
+        }
+        TransactionSort.Ranked ranked = sort.rank(row);
+        if (heap.size() < limit) {
+            heap.add(ranked);
+        } else if (sort.compare(ranked, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(ranked);
+        }
+    }
+
+    /**
+     * Checks whether a row sorted by amount could be kept before it is built, a
+     * row losing to the last kept row on its amount alone never would be
+     *
+     * @param cents the amount of the row in cents
+     * @param dated true if the date of the row is a real date
+     * @return true if the row could be kept
+     */
+    public boolean mayKeep(long cents, boolean dated) {
+        if (heap.size() < limit) {
+            return true;
+        }
+        return limit > 0 && sort.comparePrimary(cents, dated, heap.peek()) <= 0;
+    }
+
+    /**
+     * Offers every row of a list
+     *
+     * @param rows the rows to offer
+     */
+    public void offerAll(List<Transaction> rows) {
+        rows.forEach(this::offer);
+    }
+
+    /**
+     * @return List<Transaction> the rows kept in sort order
+     */
+    public List<Transaction> result() {
+        List<TransactionSort.Ranked> ranked = new ArrayList<>(heap);
+        Collections.sort(ranked, sort);
+        List<Transaction> rows = new ArrayList<>(ranked.size());
+        ranked.forEach(rank -> rows.add(rank.row));
+        return rows;
+    }
+
+}
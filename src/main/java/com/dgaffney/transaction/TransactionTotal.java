@@ -0,0 +1,45 @@
+package com.dgaffney.transaction;
+
+public class TransactionTotal {
+
+    private String type;        // the type totalled, null when not grouped by type
+    private String period;      // the date bucket totalled, null when not grouped by date
+    private String amount;      // the sum of the amounts
+    private long count;         // the number of stored transactions summed
+
+    public TransactionTotal(String type, String period, long cents, long count) {
+        this.type = type;
+        this.period = period;
+        this.amount = Amounts.format(cents);
+        this.count = count;
+    }
+
+    /**
+     * @return String return the type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return String return the period
+     */
+    public String getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return String return the amount
+     */
+    public String getAmount() {
+        return amount;
+    }
+
+    /**
+     * @return long return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.dgaffney.transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding of transaction types to small dense int ids. The dictionary
+ * file holds each type as its utf-8 byte length followed by its bytes, with a type's
+ * id being its place in the file, so a type may hold any character, ids never change
+ * once given out and new types are only ever appended
+ */
+public class TransactionTypeDictionary {
+
+    private final FileChannel channel;
+    private final List<String> types = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    // types given ids since the last flush, encoded as they are written to the file
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOutput = new DataOutputStream(pending);
+
+    public TransactionTypeDictionary(File file) throws IOException {
+        long complete = 0;
+        if (file.exists()) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            while (buffer.remaining() >= Integer.BYTES) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                String type = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                ids.put(type, types.size());
+                types.add(type);
+                complete = buffer.position();
+            }
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        // a type torn by a crash during a flush was never referred to by a column, drop it so appends follow the last whole type
+        if (channel.size() > complete) {
+            channel.truncate(complete);
+        }
+    }
+
+    /**
+     * Gets the id of a type, giving the type the next id if it has not been seen before
+     *
+     * @param type the type
+     * @return the id of the type
+     */
+    int idOf(String type) {
+        Integer id = ids.get(type);
+        if (id == null) {
+            id = types.size();
+            ids.put(type, id);
+            types.add(type);
+            byte[] bytes = type.getBytes(StandardCharsets.UTF_8);
+            try {
+                pendingOutput.writeInt(bytes.length);
+                pendingOutput.write(bytes);
+            } catch (IOException e) {
+                // writing to memory never fails
+                throw new IllegalStateException(e);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Gets the id of a type without giving it one
+     *
+     * @param type the type
+     * @return the id of the type or -1 if the type has not been seen
+     */
+    int find(String type) {
+        Integer id = ids.get(type);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the id of a type
+     * @return String the type with the id
+     */
+    String typeOf(int id) {
+        return types.get(id);
+    }
+
+    /**
+     * @return int the number of types in the dictionary
+     */
+    int size() {
+        return types.size();
+    }
+
+    /**
+     * Appends the types given ids since the last flush to the dictionary file and
+     * forces them to disk, this must happen before any column refers to the new ids
+     */
+    void flush() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        pending.reset();
+    }
+
+    /**
+     * Flushes and closes the dictionary file
+     */
+    void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.dgaffney.transaction;
+
+/**
+ * Checks a transaction against the same rules its bean validation constraints
+ * declare, for paths which read transactions one at a time and can't bind them
+ * through {@link javax.validation.Valid}, and for {@link TransactionsDeserializer}
+ * which checks posted batches as they are parsed. Messages match the default
+ * constraint messages so clients see the same text either way. Types can't hold
+ * a line break as every store keeps one row or one type per line
+ */
+public final class TransactionValidator {
+
+    // constants for the default messages of the constraints on a transaction
+    public static final String BLANK_MESSAGE = "must not be blank";
+    public static final String DATE_MESSAGE = "must match \"^\\d{2}-\\d{2}-\\d{4}$\"";
+    public static final String AMOUNT_MESSAGE = "must match \"^-?\\d+\\.\\d{2}$\"";
+    public static final String TYPE_MESSAGE = "must match \"^[^\\r\\n]*$\"";
+
+    private TransactionValidator() {
+    }
+
+    /**
+     * @param transaction the transaction to check
+     * @return String the message for the first rule the transaction breaks or null if it is valid
+     */
+    public static String validate(Transaction transaction) {
+        String amount = transaction.getAmount();
+        String invalid = validateFields(transaction.getDate(), transaction.getType(), amount);
+        if (invalid != null) {
+            return invalid;
+        }
+        try {
+            Amounts.parse(amount);
+        } catch (NumberFormatException e) {
+            return AMOUNT_MESSAGE;
+        }
+        return null;
+    }
+
+    /**
+     * Checks every rule but the amount format, which callers check by parsing the amount
+     * so it is only parsed once
+     *
+     * @param date the date of the transaction
+     * @param type the type of the transaction
+     * @param amount the amount of the transaction as text
+     * @return String the message for the first rule broken or null if none is
+     */
+    static String validateFields(String date, String type, String amount) {
+        if (isBlank(date)) {
+            return BLANK_MESSAGE;
+        }
+        if (!isDate(date)) {
+            return DATE_MESSAGE;
+        }
+        if (isBlank(type)) {
+            return BLANK_MESSAGE;
+        }
+        if (type.indexOf('\n') >= 0 || type.indexOf('\r') >= 0) {
+            return TYPE_MESSAGE;
+        }
+        if (isBlank(amount)) {
+            return BLANK_MESSAGE;
+        }
+        return null;
+    }
+
+    private static boolean isBlank(String text) {
+        if (text == null) {
+            return true;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the text is dd-MM-yyyy shaped, the same as the date pattern
+     */
+    private static boolean isDate(String text) {
+        if (text.length() != 10) {
+            return false;
+        }
+        for (int i = 0; i < 10; i++) {
+            char c = text.charAt(i);
+            boolean dash = i == 2 || i == 5;
+            if (dash ? c != '-' : c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
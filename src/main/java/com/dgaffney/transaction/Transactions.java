@@ -5,11 +5,19 @@ import java.util.List;
 
 import javax.validation.Valid;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+@JsonDeserialize(using = TransactionsDeserializer.class)
 public class Transactions {
 
     @Valid
     private List<Transaction> entries;    
 
+    // the message for the first entry of a posted batch which broke a rule, null if none did
+    @JsonIgnore
+    private String invalidMessage;
+
     public Transactions() { 
         this.entries = Collections.emptyList();
     }
@@ -28,4 +36,20 @@ public class Transactions {
         this.entries = entries;
     }
 
+    /**
+     * @return String return the invalidMessage
+     */
+    @JsonIgnore
+    public String getInvalidMessage() {
+        return invalidMessage;
+    }
+
+    /**
+     * @param invalidMessage the invalidMessage to set
+     */
+    @JsonIgnore
+    public void setInvalidMessage(String invalidMessage) {
+        this.invalidMessage = invalidMessage;
+    }
+
 }
\ No newline at end of file
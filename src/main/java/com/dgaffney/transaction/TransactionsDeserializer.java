@@ -0,0 +1,117 @@
+package com.dgaffney.transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+/**
+ * Reads the entries of a posted batch straight off the token stream, checking each
+ * entry against the rules of {@link TransactionValidator} as it is read and parsing
+ * its amount once into cents. This replaces bean validation of the batch, which
+ * evaluated the constraints of every entry reflectively after binding it. The first
+ * entry breaking a rule is reported through {@link Transactions#getInvalidMessage()}
+ * with the message bean validation gave, the rest of the body is still read but no
+ * longer checked
+ */
+public class TransactionsDeserializer extends StdDeserializer<Transactions> {
+
+    public TransactionsDeserializer() {
+        super(Transactions.class);
+    }
+
+    @Override
+    public Transactions deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        Transactions transactions = new Transactions();
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = parser.nextToken();
+        }
+        for (; token == JsonToken.FIELD_NAME; token = parser.nextToken()) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("entries".equals(field) && value == JsonToken.START_ARRAY) {
+                transactions.setEntries(readEntries(parser, context, transactions));
+            } else if ("entries".equals(field) && value != JsonToken.VALUE_NULL) {
+                throw context.wrongTokenException(parser, Transactions.class, JsonToken.START_ARRAY, "entries must be an array");
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (token != JsonToken.END_OBJECT) {
+            throw context.wrongTokenException(parser, Transactions.class, JsonToken.END_OBJECT, "expected an object of entries");
+        }
+        return transactions;
+    }
+
+    /**
+     * Reads and checks the entries of the batch, the parser is left on the end of the array
+     *
+     * @param parser the parser positioned on the start of the entries array
+     * @param context the context of the deserialization
+     * @param transactions the batch the first invalid entry is reported on
+     * @return the valid entries read before the first invalid one
+     */
+    private List<Transaction> readEntries(JsonParser parser, DeserializationContext context, Transactions transactions) throws IOException {
+        List<Transaction> entries = new ArrayList<>();
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token != JsonToken.START_OBJECT) {
+                throw context.wrongTokenException(parser, Transaction.class, JsonToken.START_OBJECT, "entries must be objects");
+            }
+            String date = null;
+            String type = null;
+            String amount = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "date":
+                        date = readText(parser, context);
+                        break;
+                    case "type":
+                        type = readText(parser, context);
+                        break;
+                    case "amount":
+                        amount = readText(parser, context);
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            // only the first invalid entry is reported, the batch is rejected as a whole
+            if (transactions.getInvalidMessage() != null) {
+                continue;
+            }
+            String invalid = TransactionValidator.validateFields(date, type, amount);
+            if (invalid == null) {
+                try {
+                    entries.add(new Transaction(date, type, Amounts.parse(amount)));
+                } catch (NumberFormatException e) {
+                    invalid = TransactionValidator.AMOUNT_MESSAGE;
+                }
+            }
+            transactions.setInvalidMessage(invalid);
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a scalar as text the same way binding it to a string property would
+     */
+    private String readText(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw context.wrongTokenException(parser, String.class, JsonToken.VALUE_STRING, "expected text for " + parser.getCurrentName());
+        }
+        return parser.getText();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class AmountsTest {
+
+    @Test
+    public void parsesAmountsIntoCents() {
+        assertEquals(1250L, Amounts.parse("12.50"));
+        assertEquals(-1250L, Amounts.parse("-12.50"));
+        assertEquals(5L, Amounts.parse("0.05"));
+        assertEquals(Long.MAX_VALUE, Amounts.parse("92233720368547758.07"));
+        assertEquals(Long.MIN_VALUE, Amounts.parse("-92233720368547758.08"));
+    }
+
+    @Test
+    public void formatsCentsAsAmounts() {
+        assertEquals("12.50", Amounts.format(1250L));
+        assertEquals("-0.05", Amounts.format(-5L));
+        assertEquals("0.00", Amounts.format(0L));
+        assertEquals("-92233720368547758.08", Amounts.format(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void sumsStayExactPastFloatPrecision() {
+        Transaction transaction = new Transaction("01-01-2018", "food", "123456.78");
+        transaction.sumTransactions(new Transaction("01-01-2018", "food", "0.01"));
+        assertEquals("123456.79", transaction.getAmount());
+    }
+
+    @Test
+    public void sumsOutOfRangeAreRejected() {
+        Transaction transaction = new Transaction("01-01-2018", "food", "92233720368547758.07");
+        try {
+            transaction.sumTransactions(new Transaction("01-01-2018", "food", "0.01"));
+            fail("the sum should be out of range");
+        } catch (ArithmeticException e) {
+            assertEquals("92233720368547758.07", transaction.getAmount());
+        }
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsAmountsWithoutTwoDecimalPlaces() {
+        Amounts.parse("12.5");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsAmountsWithoutWholeDigits() {
+        Amounts.parse("-.50");
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void rejectsAmountsWhichOverflow() {
+        Amounts.parse("92233720368547758.08");
+    }
+
+}
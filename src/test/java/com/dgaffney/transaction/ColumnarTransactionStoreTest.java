@@ -0,0 +1,256 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ColumnarTransactionStoreTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-columnar").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void columnsGrowWhileTheyAreRead() throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        AtomicReference<Throwable> readFailure = new AtomicReference<>();
+        AtomicBoolean merging = new AtomicBoolean(true);
+        Thread reader = new Thread(() -> {
+            try {
+                int seen = 0;
+                while (merging.get()) {
+                    int rows = TransactionStores.rows(store).size();
+                    assertTrue(rows >= seen);
+                    seen = rows;
+                }
+            } catch (Throwable e) {
+                readFailure.set(e);
+            }
+        });
+        try {
+            reader.start();
+            // every batch creates rows past the initial capacity several times over
+            for (int batch = 0; batch < 20; batch++) {
+                List<Transaction> rows = new ArrayList<>();
+                for (int row = 0; row < 500; row++) {
+                    rows.add(new Transaction(TransactionDates.format(batch), "type" + row, 1L));
+                }
+                Transactions transactions = new Transactions();
+                transactions.setEntries(rows);
+                assertEquals(TransactionResult.STORED_MESSAGE, store.merge(transactions).getMessage());
+            }
+            merging.set(false);
+            reader.join();
+            assertNull(readFailure.get());
+            assertEquals(10000, TransactionStores.rows(store).size());
+        } finally {
+            merging.set(false);
+            store.close();
+        }
+
+        ColumnarTransactionStore reopened = new ColumnarTransactionStore(directory);
+        try {
+            assertEquals(10000, TransactionStores.rows(reopened).size());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void aBatchFailingPartWayLeavesTheColumnsAsTheyWere() throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        try {
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L)));
+
+            ColumnFile days = store.days;
+            ColumnFile failing = new ColumnFile(new File(directory, ColumnarTransactionStore.DAYS_COLUMN), Integer.BYTES) {
+                @Override
+                void force() {
+                    throw new IllegalStateException("No space left on device");
+                }
+            };
+            store.days = failing;
+            Transaction existing = new Transaction("01-01-2018", "food", 50L);
+            TransactionResult failed = store.merge(TransactionStores.batch(existing, new Transaction("02-01-2018", "rent", 70L),
+                                                                           new Transaction("01-01-2018", "food", 5L)));
+            store.days = days;
+            failing.close();
+
+            assertEquals("Error occurred writing", failed.getMessage());
+            assertFalse(existing.isExisted());
+            assertEquals(Arrays.asList("01-01-2018,food,100"), TransactionStores.text(TransactionStores.rows(store)));
+
+            store.merge(TransactionStores.batch(new Transaction("02-01-2018", "rent", 70L), new Transaction("01-01-2018", "food", 5L)));
+        } finally {
+            store.close();
+        }
+
+        store = new ColumnarTransactionStore(directory);
+        try {
+            assertEquals(Arrays.asList("01-01-2018,food,105", "02-01-2018,rent,70"), TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void aMergeCutShortByACrashIsRolledBackWhenTheStoreOpens() throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L), new Transaction("02-01-2018", "rent", 70L)));
+
+        // the amounts are written and forced but the crash comes before the days count is
+        ColumnFile days = store.days;
+        store.days = new ColumnFile(new File(directory, ColumnarTransactionStore.DAYS_COLUMN), Integer.BYTES) {
+            @Override
+            void force() {
+                throw new AssertionError("crash");
+            }
+        };
+        try {
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 5L), new Transaction("03-01-2018", "fuel", 40L)));
+            fail("the merge should crash");
+        } catch (AssertionError e) {
+            // expected
+        }
+        store.amounts.force();
+        assertEquals(105L, store.amounts.getLong(0));
+        store.days.close();
+        store.days = days;
+        store.close();
+
+        store = new ColumnarTransactionStore(directory);
+        try {
+            assertEquals(Arrays.asList("01-01-2018,food,100", "02-01-2018,rent,70"), TransactionStores.text(TransactionStores.rows(store)));
+            assertEquals(0, new File(directory, ColumnarTransactionStore.AMOUNTS_JOURNAL).length());
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 5L), new Transaction("03-01-2018", "fuel", 40L)));
+            assertEquals(0, new File(directory, ColumnarTransactionStore.AMOUNTS_JOURNAL).length());
+        } finally {
+            store.close();
+        }
+        store = new ColumnarTransactionStore(directory);
+        try {
+            assertEquals(Arrays.asList("01-01-2018,food,105", "02-01-2018,rent,70", "03-01-2018,fuel,40"),
+                         TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void aJournalCutShortIsDropped() throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L)));
+        store.journal.record(0, Collections.singletonMap(0, 1L));
+        store.close();
+
+        // the journal is complete but for the last byte of its checksum
+        File journal = new File(directory, ColumnarTransactionStore.AMOUNTS_JOURNAL);
+        byte[] bytes = Files.readAllBytes(journal.toPath());
+        Files.write(journal.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+
+        store = new ColumnarTransactionStore(directory);
+        try {
+            assertEquals(Arrays.asList("01-01-2018,food,100"), TransactionStores.text(TransactionStores.rows(store)));
+            assertEquals(0, journal.length());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void aBatchTakingASumOutOfRangeIsRejectedWhole() throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        try {
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", Long.MAX_VALUE - 1), new Transaction("02-01-2018", "rent", 70L)));
+
+            TransactionResult transactionResult = store.merge(TransactionStores.batch(new Transaction("02-01-2018", "rent", 5L),
+                                                                                      new Transaction("01-01-2018", "food", 1L),
+                                                                                      new Transaction("01-01-2018", "food", 1L)));
+
+            assertEquals(TransactionResult.OVERFLOW_MESSAGE, transactionResult.getMessage());
+            assertEquals(Arrays.asList("01-01-2018,food," + (Long.MAX_VALUE - 1), "02-01-2018,rent,70"), TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void readersAreLockedOutUntilTheColumnsAreForced() throws Exception {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(directory);
+        try {
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L)));
+
+            List<Boolean> lockedWhileForced = new ArrayList<>();
+            ColumnFile amounts = store.amounts;
+            store.amounts = new ColumnFile(new File(directory, ColumnarTransactionStore.AMOUNTS_COLUMN), Long.BYTES) {
+                @Override
+                void force() {
+                    lockedWhileForced.add(((ReentrantReadWriteLock) store.rwLock).isWriteLocked());
+                    super.force();
+                }
+            };
+            amounts.close();
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 5L), new Transaction("02-01-2018", "rent", 70L)));
+
+            assertEquals(Arrays.asList(true), lockedWhileForced);
+            assertFalse(((ReentrantReadWriteLock) store.rwLock).isWriteLocked());
+            assertEquals(Arrays.asList("01-01-2018,food,105", "02-01-2018,rent,70"), TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void csvRowsRoundTripThroughTheColumns() throws Exception {
+        List<String> rows = Arrays.asList("01-01-2018,food,1.00", "02-01-2018,rent,-0.70", "03-02-2018,caf\u00e9,0.00",
+                                          "03-01-2018,a, b,0.09", "01-01-2018,fuel,0.01");
+        File csvFile = new File(directory, "in.csv");
+        Files.write(csvFile.toPath(), rows, StandardCharsets.UTF_8);
+        File columns = new File(directory, "columns");
+        columns.mkdirs();
+
+        TransactionColumnarConverter.importCsv(csvFile, columns);
+        // a second import merges into the rows already held
+        TransactionColumnarConverter.importCsv(csvFile, columns);
+        File exported = new File(directory, "out.csv");
+        TransactionColumnarConverter.exportCsv(columns, exported);
+
+        List<String> expected = Arrays.asList("01-01-2018,food,200", "02-01-2018,rent,-140", "03-02-2018,caf\u00e9,0",
+                                              "03-01-2018,a, b,18", "01-01-2018,fuel,2");
+        ColumnarTransactionStore store = new ColumnarTransactionStore(columns);
+        try {
+            assertEquals(expected, TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+        List<Transaction> exportedRows = new ArrayList<>();
+        TransactionCsvCodec.read(exported, (row, nextOffset) -> exportedRows.add(row));
+        assertEquals(expected, TransactionStores.text(exportedRows));
+    }
+
+}
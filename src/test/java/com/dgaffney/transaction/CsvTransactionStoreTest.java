@@ -0,0 +1,117 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CsvTransactionStoreTest {
+
+    private File directory;
+
+    private CsvTransactionStore store;
+
+    @Before
+    public void createStore() throws Exception {
+        directory = Files.createTempDirectory("transactions-csv-store").toFile();
+        store = new CsvTransactionStore(new TransactionFiles(directory));
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void mergesUpdateRowsWhereTheyAreAndAppendNewRows() throws Exception {
+        store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L), new Transaction("02-01-2018", "rent", 70L),
+                                            new Transaction("03-01-2018", "fuel", 40L)));
+
+        TransactionResult transactionResult = store.merge(TransactionStores.batch(new Transaction("04-01-2018", "food", 9L),
+                                                                                  new Transaction("02-01-2018", "rent", 5L),
+                                                                                  new Transaction("04-01-2018", "food", 1L),
+                                                                                  new Transaction("02-01-2018", "rent", -25L)));
+
+        assertEquals(TransactionResult.STORED_MESSAGE, transactionResult.getMessage());
+        assertEquals(1, transactionResult.getCreated());
+        assertEquals(3, transactionResult.getUpdated());
+        assertEquals(Arrays.asList("01-01-2018,food,100", "02-01-2018,rent,50", "03-01-2018,fuel,40", "04-01-2018,food,10"),
+                     TransactionStores.text(TransactionStores.rows(store)));
+    }
+
+    @Test
+    public void aBatchTakingASumOutOfRangeIsRejectedWhole() throws Exception {
+        store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", Long.MAX_VALUE - 1), new Transaction("02-01-2018", "rent", 70L)));
+
+        TransactionResult transactionResult = store.merge(TransactionStores.batch(new Transaction("02-01-2018", "rent", 5L),
+                                                                                  new Transaction("01-01-2018", "food", 1L),
+                                                                                  new Transaction("01-01-2018", "food", 1L)));
+
+        assertEquals(TransactionResult.OVERFLOW_MESSAGE, transactionResult.getMessage());
+        assertEquals(Arrays.asList("01-01-2018,food," + (Long.MAX_VALUE - 1), "02-01-2018,rent,70"), TransactionStores.text(TransactionStores.rows(store)));
+    }
+
+    @Test
+    public void aRewriteFailingPartWayLeavesTheFileAsItWas() throws Exception {
+        store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L), new Transaction("02-01-2018", "rent", 70L)));
+        CsvTransactionStore failing = new CsvTransactionStore(store.transactionFiles) {
+            @Override
+            void appendToTransactionsCopyFile(TransactionCsvCodec.Encoder encoder, Transaction transaction) {
+                if (transaction.getType().equals("rent")) {
+                    throw new UncheckedIOException(new IOException("No space left on device"));
+                }
+                super.appendToTransactionsCopyFile(encoder, transaction);
+            }
+        };
+
+        TransactionResult transactionResult = failing.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 5L)));
+
+        assertEquals("Error occurred writing", transactionResult.getMessage());
+        assertEquals(0, transactionResult.getCreated() + transactionResult.getUpdated());
+        assertEquals(Arrays.asList("01-01-2018,food,100", "02-01-2018,rent,70"), TransactionStores.text(TransactionStores.rows(store)));
+    }
+
+    @Test
+    public void parallelFilterReturnsTheRowsASequentialScanDoes() throws Exception {
+        Random random = new Random(7);
+        for (int batch = 0; batch < 10; batch++) {
+            List<Transaction> rows = new ArrayList<>();
+            for (int row = 0; row < 200; row++) {
+                rows.add(new Transaction(TransactionDates.format(17500 + random.nextInt(400)), "t" + random.nextInt(6), (long) random.nextInt(1000)));
+            }
+            store.merge(TransactionStores.batch(rows.toArray(new Transaction[0])));
+        }
+        File transactionFile = store.transactionFiles.getTransactionsFile();
+        store.scanChunkBytes = 1024;
+        assertTrue(transactionFile.length() > 8 * store.scanChunkBytes);
+
+        String[][] filters = { { ".*", ".*" }, { ".*", "t2" }, { ".*-03-.*", ".*" }, { ".*", "none" } };
+        for (String[] filter : filters) {
+            for (int limit : new int[] { 1, 5, 37, 100000 }) {
+                TransactionQuery query = new TransactionQuery();
+                query.setDate(filter[0]);
+                query.setType(filter[1]);
+                query.setLimit(limit);
+
+                store.parallelScanThresholdBytes = Long.MAX_VALUE;
+                List<String> sequential = TransactionStores.text(store.find(query));
+                store.parallelScanThresholdBytes = 0;
+                List<String> parallel = TransactionStores.text(store.find(query));
+
+                assertEquals(filter[0] + " " + filter[1] + " limit " + limit, sequential, parallel);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class GroupCommitTransactionStoreTest {
+
+    @Test
+    public void eachCallerGetsTheCountsOfItsOwnTransactions() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MemoryStore delegate = new MemoryStore(release);
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(delegate, 0, 10000);
+        ExecutorService callers = Executors.newFixedThreadPool(5);
+        try {
+            // the first batch holds the writer so the rest queue up behind it and are combined
+            Future<TransactionResult> first = callers.submit(() -> store.merge(TransactionStores.batch(new Transaction("01-01-2018", "a", 100L))));
+            delegate.merging.await(10, TimeUnit.SECONDS);
+            List<Future<TransactionResult>> queued = new ArrayList<>();
+            queued.add(callers.submit(() -> store.merge(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L), new Transaction("01-01-2018", "b", 1L)))));
+            queued.add(callers.submit(() -> store.merge(TransactionStores.batch(new Transaction("01-01-2018", "b", 1L), new Transaction("01-01-2018", "c", 1L)))));
+            queued.add(callers.submit(() -> store.merge(TransactionStores.batch(new Transaction("02-01-2018", "a", 1L)))));
+            while (store.queue.size() < 3) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            assertResult(1, 0, first.get(10, TimeUnit.SECONDS));
+            // an earlier batch in the group creating a row makes it an update for the later ones
+            assertResult(1, 1, queued.get(0).get(10, TimeUnit.SECONDS));
+            assertResult(1, 1, queued.get(1).get(10, TimeUnit.SECONDS));
+            assertResult(1, 0, queued.get(2).get(10, TimeUnit.SECONDS));
+            assertEquals(2, delegate.merges.get());
+        } finally {
+            callers.shutdownNow();
+            store.close();
+        }
+    }
+
+    @Test
+    public void asyncMergesHandBackTheFutureWithoutWaiting() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(new MemoryStore(release), 0, 10000);
+        try {
+            CompletableFuture<TransactionResult> merged = store.mergeAsync(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L)));
+            assertFalse(merged.isDone());
+            release.countDown();
+            assertResult(1, 0, merged.get(10, TimeUnit.SECONDS));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void callersAreFailedOnceTheWriterDies() throws Exception {
+        MemoryStore delegate = new MemoryStore(new CountDownLatch(0));
+        delegate.error = new AssertionError("writer killed");
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(delegate, 0, 10000);
+
+        assertEquals("Error occurred writing", store.merge(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L))).getMessage());
+        store.writer.join(10000);
+        assertEquals("Store is closed", store.merge(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L))).getMessage());
+    }
+
+    @Test
+    public void callersStopWaitingAfterTheTimeout() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(new MemoryStore(release), 0, 10000);
+        store.mergeTimeoutMillis = 50;
+        try {
+            TransactionResult result = store.merge(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L)));
+            assertTrue(result.getMessage(), result.getMessage().startsWith("Timed out"));
+        } finally {
+            release.countDown();
+            store.close();
+        }
+    }
+
+    @Test
+    public void asyncMergesAreAnsweredOnceTheTimeoutPasses() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MemoryStore delegate = new MemoryStore(release);
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(delegate, 0, 10000);
+        store.mergeTimeoutMillis = 50;
+        try {
+            CompletableFuture<TransactionResult> taken = store.mergeAsync(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L)));
+            delegate.merging.await(10, TimeUnit.SECONDS);
+            CompletableFuture<TransactionResult> queued = store.mergeAsync(TransactionStores.batch(new Transaction("01-01-2018", "b", 1L)));
+
+            // the batch still queued is taken off and never merged
+            assertEquals("Timed out waiting for the merge, it was not stored", queued.get(10, TimeUnit.SECONDS).getMessage());
+            assertTrue(store.queue.isEmpty());
+            // the batch the writer holds may still be merged and hands back the merge to follow it
+            TransactionResult timedOut = taken.get(10, TimeUnit.SECONDS);
+            assertEquals("Timed out waiting for the merge, it may still be stored", timedOut.getMessage());
+            assertFalse(timedOut.getPendingMerge().isDone());
+
+            release.countDown();
+            assertResult(1, 0, timedOut.getPendingMerge().get(10, TimeUnit.SECONDS));
+            assertEquals(1, delegate.rows.size());
+            assertEquals(1, delegate.merges.get());
+        } finally {
+            release.countDown();
+            store.close();
+        }
+    }
+
+    @Test
+    public void asyncMergesAreRejectedOnceTooManyBatchesOrRowsArePending() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MemoryStore delegate = new MemoryStore(release);
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(delegate, 0, 10000);
+        store.maxPendingBatches = 3;
+        store.maxPendingRows = 3;
+        try {
+            // the first batch holds the writer and counts as pending until it is committed
+            CompletableFuture<TransactionResult> first = store.mergeAsync(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L)));
+            delegate.merging.await(10, TimeUnit.SECONDS);
+            CompletableFuture<TransactionResult> second = store.mergeAsync(TransactionStores.batch(new Transaction("01-01-2018", "b", 1L)));
+            assertRejected(store, TransactionStores.batch(new Transaction("01-01-2018", "c", 1L), new Transaction("01-01-2018", "d", 1L)));
+            CompletableFuture<TransactionResult> third = store.mergeAsync(TransactionStores.batch(new Transaction("01-01-2018", "c", 1L)));
+            assertRejected(store, TransactionStores.batch(new Transaction("01-01-2018", "d", 1L)));
+
+            release.countDown();
+            assertResult(1, 0, first.get(10, TimeUnit.SECONDS));
+            assertResult(1, 0, second.get(10, TimeUnit.SECONDS));
+            assertResult(1, 0, third.get(10, TimeUnit.SECONDS));
+            // a batch larger than the rows bound is taken once nothing else is pending
+            assertResult(4, 0, store.mergeAsync(TransactionStores.batch(new Transaction("02-01-2018", "a", 1L), new Transaction("02-01-2018", "b", 1L),
+                                                                        new Transaction("02-01-2018", "c", 1L), new Transaction("02-01-2018", "d", 1L)))
+                                    .get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            store.close();
+        }
+    }
+
+    @Test
+    public void aMergeWaitedOnWaitsForRoomInTheQueue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MemoryStore delegate = new MemoryStore(release);
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(delegate, 0, 10000);
+        store.maxPendingBatches = 1;
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            CompletableFuture<TransactionResult> first = store.mergeAsync(TransactionStores.batch(new Transaction("01-01-2018", "a", 1L)));
+            delegate.merging.await(10, TimeUnit.SECONDS);
+            Future<TransactionResult> waiting = callers.submit(() -> store.merge(TransactionStores.batch(new Transaction("01-01-2018", "b", 1L))));
+            Thread.sleep(50);
+            assertFalse(waiting.isDone());
+
+            release.countDown();
+            assertResult(1, 0, first.get(10, TimeUnit.SECONDS));
+            assertResult(1, 0, waiting.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+            store.close();
+        }
+    }
+
+    private static void assertRejected(GroupCommitTransactionStore store, Transactions transactions) {
+        try {
+            store.mergeAsync(transactions);
+            fail("the batch should be rejected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    private static void assertResult(int created, int updated, TransactionResult result) {
+        assertEquals(TransactionResult.STORED_MESSAGE, result.getMessage());
+        assertEquals("created", created, result.getCreated());
+        assertEquals("updated", updated, result.getUpdated());
+    }
+
+    /**
+     * Keeps rows in a map, holding every merge until released
+     */
+    private static class MemoryStore implements TransactionStore {
+
+        final Map<TransactionKey, Long> rows = new HashMap<>();
+        final CountDownLatch release;
+        final CountDownLatch merging = new CountDownLatch(1);
+        final AtomicInteger merges = new AtomicInteger();
+        volatile Error error;
+
+        MemoryStore(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public TransactionResult merge(Transactions transactions) {
+            merges.incrementAndGet();
+            merging.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+            int created = 0;
+            for (Transaction transaction : transactions.getEntries()) {
+                Long cents = rows.put(TransactionKey.of(transaction), transaction.getCents());
+                if (cents == null) {
+                    created++;
+                } else {
+                    transaction.setExisted(true);
+                }
+            }
+            return new TransactionResult(created, transactions.getEntries().size() - created, TransactionResult.STORED_MESSAGE);
+        }
+
+        @Override
+        public List<Transaction> find(TransactionQuery query) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public void scan(long position, TransactionCsvCodec.RowHandler handler) {
+        }
+    }
+
+}
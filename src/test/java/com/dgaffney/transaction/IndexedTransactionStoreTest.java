@@ -0,0 +1,148 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IndexedTransactionStoreTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-index-store").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void mergesSumAmountsAndCountTheRowsCreatedAndUpdated() throws Exception {
+        IndexedTransactionStore store = open();
+        try {
+            TransactionResult first = store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L),
+                                                                          new Transaction("01-01-2018", "food", 50L),
+                                                                          new Transaction("02-01-2018", "rent", 70L)));
+            assertEquals(TransactionResult.STORED_MESSAGE, first.getMessage());
+            // a later row for the same date and type updates the row the first one created
+            assertEquals(2, first.getCreated());
+            assertEquals(1, first.getUpdated());
+
+            TransactionResult second = store.merge(TransactionStores.batch(new Transaction("02-01-2018", "rent", -20L),
+                                                                           new Transaction("03-01-2018", "food", 5L)));
+            assertEquals(1, second.getCreated());
+            assertEquals(1, second.getUpdated());
+            assertEquals(Arrays.asList("01-01-2018,food,150", "02-01-2018,rent,50", "03-01-2018,food,5"),
+                         TransactionStores.text(TransactionStores.rows(store)));
+            // the gauges follow every publish without taking the lock
+            assertEquals(3, store.indexRows());
+            assertTrue(store.indexBytes() > 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void aBatchTakingASumOutOfRangeIsRejectedWhole() throws Exception {
+        IndexedTransactionStore store = open();
+        try {
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", Long.MAX_VALUE - 1), new Transaction("02-01-2018", "rent", 70L)));
+
+            TransactionResult transactionResult = store.merge(TransactionStores.batch(new Transaction("02-01-2018", "rent", 5L),
+                                                                                      new Transaction("01-01-2018", "food", 1L),
+                                                                                      new Transaction("01-01-2018", "food", 1L)));
+
+            assertEquals(TransactionResult.OVERFLOW_MESSAGE, transactionResult.getMessage());
+            assertEquals(Arrays.asList("01-01-2018,food," + (Long.MAX_VALUE - 1), "02-01-2018,rent,70"), TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void reopeningReplaysTheCompactedSnapshotAndTheLogTail() throws Exception {
+        IndexedTransactionStore store = open();
+        store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L), new Transaction("02-01-2018", "rent", 70L)));
+        store.compact();
+        store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 5L), new Transaction("03-01-2018", "fuel", 40L)));
+        List<String> expected = Arrays.asList("01-01-2018,food,105", "02-01-2018,rent,70", "03-01-2018,fuel,40");
+
+        // stop without the compaction close runs, as a crash would, so the second merge is only in the log
+        TransactionFiles transactionFiles = store.transactionFiles;
+        store.transactionLog.close();
+        assertFalse(transactionFiles.getLogSegmentFiles().isEmpty());
+        assertTrue(transactionFiles.getCheckpointFile().exists());
+
+        store = open();
+        try {
+            assertEquals(expected, TransactionStores.text(TransactionStores.rows(store)));
+            store.merge(TransactionStores.batch(new Transaction("02-01-2018", "rent", 1L)));
+        } finally {
+            store.close();
+        }
+        expected = Arrays.asList("01-01-2018,food,105", "02-01-2018,rent,71", "03-01-2018,fuel,40");
+        assertTrue(transactionFiles.getLogSegmentFiles().isEmpty());
+
+        // once closed everything is in the snapshot, which loads the same from the checkpoint or the csv
+        store = open();
+        try {
+            assertEquals(expected, TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+        assertTrue(transactionFiles.getCheckpointFile().delete());
+        store = open();
+        try {
+            assertEquals(expected, TransactionStores.text(TransactionStores.rows(store)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void findAppliesTheFiltersAndTheLimit() throws Exception {
+        TransactionStore store = open();
+        try {
+            store.merge(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L), new Transaction("01-01-2018", "rent", 70L),
+                                                new Transaction("15-02-2018", "food", 30L), new Transaction("20-03-2018", "food", 10L)));
+
+            TransactionQuery query = new TransactionQuery();
+            query.setType("food");
+            assertEquals(Arrays.asList("01-01-2018,food,100", "15-02-2018,food,30", "20-03-2018,food,10"),
+                         TransactionStores.text(store.find(query)));
+
+            query.setFrom("01-02-2018");
+            query.setTo("28-02-2018");
+            assertEquals(Arrays.asList("15-02-2018,food,30"), TransactionStores.text(store.find(query)));
+
+            query = new TransactionQuery();
+            query.setDate("01-01-2018");
+            assertEquals(Arrays.asList("01-01-2018,food,100", "01-01-2018,rent,70"), TransactionStores.text(store.find(query)));
+
+            query = new TransactionQuery();
+            query.setLimit(2);
+            assertEquals(Arrays.asList("01-01-2018,food,100", "01-01-2018,rent,70"), TransactionStores.text(store.find(query)));
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * @return IndexedTransactionStore the index store kept in the test directory
+     */
+    private IndexedTransactionStore open() throws Exception {
+        return (IndexedTransactionStore) TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 1, false, false);
+    }
+
+}
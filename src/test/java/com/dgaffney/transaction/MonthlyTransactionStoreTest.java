@@ -0,0 +1,118 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MonthlyTransactionStoreTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-monthly").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void retentionTakesOutExpiredMonthsAndReportsTheirRows() throws Exception {
+        String expiredDate = date(14);
+        String keptDate = date(1);
+        MonthlyTransactionStore store = open();
+        List<Transaction> removed = new ArrayList<>();
+        store.addRemovalListener(month -> removed.addAll(TransactionStores.rows(month)));
+        try {
+            store.merge(TransactionStores.batch(new Transaction(expiredDate, "food", 150L), new Transaction(keptDate, "food", 200L),
+                                                new Transaction("31-02-2020", "food", 7L)));
+            store.merge(TransactionStores.batch(new Transaction(expiredDate, "food", 50L)));
+
+            store.retentionMonths = 12;
+            store.applyRetention();
+
+            assertEquals(TransactionStores.text(rows(expiredDate, "food", 200L)), TransactionStores.text(removed));
+            assertEquals(TransactionStores.text(rows(keptDate, "food", 200L, "31-02-2020", "food", 7L)), TransactionStores.text(TransactionStores.rows(store)));
+            String expiredMonth = MonthlyTransactionStore.monthName(MonthlyTransactionStore.monthOfDate(expiredDate));
+            assertTrue(new File(store.archiveDirectory, MonthlyTransactionStore.MONTH_PREFIX + expiredMonth).isDirectory());
+            assertFalse(store.transactionFiles.getMonthDirectory(expiredMonth).exists());
+            assertEquals("Date " + expiredDate + " is past the retention period",
+                         store.merge(TransactionStores.batch(new Transaction(expiredDate, "food", 1L))).getMessage());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void monthsAreReopenedFromDisk() throws Exception {
+        MonthlyTransactionStore store = open();
+        store.merge(TransactionStores.batch(new Transaction(date(2), "food", 1L), new Transaction(date(0), "rent", 2L)));
+        List<String> stored = TransactionStores.text(TransactionStores.rows(store));
+        store.close();
+
+        store = open();
+        try {
+            assertEquals(stored, TransactionStores.text(TransactionStores.rows(store)));
+            assertEquals(2, store.months.size());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void monthsShareOneCompactorAndCloseTheirLogOnceCompacted() throws Exception {
+        MonthlyTransactionStore store = open();
+        try {
+            store.merge(TransactionStores.batch(new Transaction(date(2), "food", 1L), new Transaction(date(0), "rent", 2L)));
+            IndexedTransactionStore first = (IndexedTransactionStore) store.months.firstEntry().getValue();
+            IndexedTransactionStore last = (IndexedTransactionStore) store.months.lastEntry().getValue();
+            assertTrue(first.compactor == last.compactor);
+
+            first.compact();
+            assertTrue(first.transactionFiles.getLogSegmentFiles().isEmpty());
+            assertEquals(1, last.transactionFiles.getLogSegmentFiles().size());
+
+            first.close();
+            assertFalse(last.compactor.isShutdown());
+            last.compact();
+            assertTrue(last.transactionFiles.getLogSegmentFiles().isEmpty());
+        } finally {
+            store.close();
+        }
+    }
+
+    private MonthlyTransactionStore open() throws Exception {
+        TransactionStoreConfig config = TransactionStores.config(TransactionStoreConfig.INDEX_STORE, 1, true, false);
+        MonthlyTransactionStore store = new MonthlyTransactionStore(new TransactionFiles(directory), files -> config.createStore(files, TransactionMetrics.noop()));
+        store.load(3600000);
+        return store;
+    }
+
+    /**
+     * @return String the first day of the month a number of months ago
+     */
+    static String date(int monthsAgo) {
+        return TransactionDates.format((int) LocalDate.now().withDayOfMonth(1).minusMonths(monthsAgo).toEpochDay());
+    }
+
+    private static List<Transaction> rows(Object... values) {
+        List<Transaction> rows = new ArrayList<>();
+        for (int i = 0; i < values.length; i += 3) {
+            rows.add(new Transaction((String) values[i], (String) values[i + 1], (Long) values[i + 2]));
+        }
+        return rows;
+    }
+
+}
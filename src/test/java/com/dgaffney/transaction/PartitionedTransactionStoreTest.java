@@ -0,0 +1,126 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PartitionedTransactionStoreTest {
+
+    private static final int PARTITIONS = 3;
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-partitioned").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void hashPartitionsSpreadTheRowsAndSumTheCounts() throws Exception {
+        PartitionedTransactionStore store = open(TransactionPartitioner.HASH);
+        List<String> expected;
+        try {
+            TransactionResult first = store.merge(TransactionStores.batch(rows().toArray(new Transaction[0])));
+            assertEquals(TransactionResult.STORED_MESSAGE, first.getMessage());
+            assertEquals(60, first.getCreated());
+            assertEquals(0, first.getUpdated());
+
+            TransactionResult second = store.merge(TransactionStores.batch(new Transaction("01-01-2018", "t0", 5L),
+                                                                           new Transaction("01-01-2018", "t1", 5L),
+                                                                           new Transaction("02-06-2018", "t0", 5L)));
+            assertEquals(1, second.getCreated());
+            assertEquals(2, second.getUpdated());
+
+            for (TransactionStore partition : store.partitions) {
+                assertTrue(TransactionStores.rows(partition).size() > 0);
+                for (Transaction row : TransactionStores.rows(partition)) {
+                    assertEquals(partition, store.partitions.get(TransactionPartitioner.HASH.partitionOf(row.getDate(), row.getType(), PARTITIONS)));
+                }
+            }
+            TransactionQuery query = new TransactionQuery();
+            query.setLimit(1000);
+            expected = sorted(TransactionStores.text(store.find(query)));
+            assertEquals(61, expected.size());
+            assertTrue(expected.contains("01-01-2018,t0,5"));
+            assertTrue(expected.contains("01-01-2018,t1,6"));
+
+            // an exact date and type is only looked for in its own partition
+            query.setDate("01-01-2018");
+            query.setType("t1");
+            assertEquals(Collections.singletonList("01-01-2018,t1,6"), TransactionStores.text(store.find(query)));
+        } finally {
+            store.close();
+        }
+
+        store = open(TransactionPartitioner.HASH);
+        try {
+            assertEquals(expected, sorted(TransactionStores.text(TransactionStores.rows(store))));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void monthPartitionsKeepEachMonthTogether() throws Exception {
+        PartitionedTransactionStore store = open(TransactionPartitioner.MONTH);
+        try {
+            store.merge(TransactionStores.batch(rows().toArray(new Transaction[0])));
+            for (TransactionStore partition : store.partitions) {
+                for (Transaction row : TransactionStores.rows(partition)) {
+                    assertEquals(partition, store.partitions.get(TransactionPartitioner.MONTH.partitionOf(row.getDate(), null, PARTITIONS)));
+                }
+            }
+            TransactionQuery query = new TransactionQuery();
+            query.setLimit(1000);
+            assertEquals(60, store.find(query).size());
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * @return List<Transaction> five types on the first of each month of 2018 with the type number as the cents
+     */
+    private static List<Transaction> rows() {
+        List<Transaction> rows = new ArrayList<>();
+        for (int month = 1; month <= 12; month++) {
+            for (int type = 0; type < 5; type++) {
+                rows.add(new Transaction(String.format("01-%02d-2018", month), "t" + type, (long) type));
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> sorted(List<String> rows) {
+        List<String> sorted = new ArrayList<>(rows);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return PartitionedTransactionStore csv partitions kept in the test directory
+     */
+    private PartitionedTransactionStore open(TransactionPartitioner partitioner) {
+        TransactionFiles transactionFiles = new TransactionFiles(directory);
+        List<TransactionStore> partitions = new ArrayList<>();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            partitions.add(new CsvTransactionStore(transactionFiles.getPartitionFiles(partition)));
+        }
+        return new PartitionedTransactionStore(partitions, partitioner);
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionCheckpointTest {
+
+    private File directory;
+
+    private TransactionFiles transactionFiles;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-checkpoint").toFile();
+        transactionFiles = new TransactionFiles(directory);
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void rowsOfAnyLengthReadBackFromTheCheckpoint() throws Exception {
+        StringBuilder longType = new StringBuilder();
+        while (longType.length() < 70000) {
+            longType.append("caf\u00e9 ");
+        }
+        List<Transaction> rows = Arrays.asList(new Transaction("01-01-2018", longType.toString(), 150L),
+                                               new Transaction("31-02-2018", "rent", -5L));
+        File snapshot = transactionFiles.getTransactionsFile();
+        Files.write(snapshot.toPath(), "the snapshot".getBytes());
+
+        TransactionCheckpoint.Writer writer = new TransactionCheckpoint.Writer(transactionFiles.getCheckpointCopyFile());
+        for (Transaction row : rows) {
+            writer.write(row);
+        }
+        writer.commit(snapshot, transactionFiles.getCheckpointFile(), transactionFiles);
+
+        assertTrue(TransactionCheckpoint.isCurrent(transactionFiles.getCheckpointFile(), snapshot));
+        List<Transaction> read = new ArrayList<>();
+        assertTrue(TransactionCheckpoint.read(transactionFiles.getCheckpointFile(), snapshot, read::add));
+        assertEquals(TransactionStores.text(rows), TransactionStores.text(read));
+    }
+
+    @Test
+    public void checkpointsOfAnEarlierVersionAreNotLoaded() throws Exception {
+        File snapshot = transactionFiles.getTransactionsFile();
+        Files.write(snapshot.toPath(), "the snapshot".getBytes());
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(transactionFiles.getCheckpointFile()))) {
+            output.writeInt(TransactionCheckpoint.MAGIC);
+            output.writeInt(1);
+            output.writeLong(snapshot.length());
+            output.writeLong(snapshot.lastModified());
+            output.writeInt(0);
+        }
+
+        List<Transaction> read = new ArrayList<>();
+        assertFalse(TransactionCheckpoint.read(transactionFiles.getCheckpointFile(), snapshot, read::add));
+        assertTrue(read.isEmpty());
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+public class TransactionControllerTest {
+
+    private File directory;
+
+    private TransactionController controller;
+
+    @Before
+    public void createController() throws Exception {
+        directory = Files.createTempDirectory("transactions-controller").toFile();
+        controller = new TransactionController();
+        controller.transactionService = TransactionServiceTest.service(TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 1, false, true));
+        controller.readExecutor = Runnable::run;
+        controller.writeExecutor = Runnable::run;
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        controller.transactionService.transactionStore.close();
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void aClientHoldingTheTagOfAnUnchangedResultGetsNotModified() throws Exception {
+        controller.persistTransactions(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L))).get();
+        TransactionQuery query = new TransactionQuery();
+
+        ResponseEntity<Transactions> first = controller.getMethodName(query, null).get();
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        assertEquals(Arrays.asList("01-01-2018,food,100"), TransactionStores.text(first.getBody().getEntries()));
+        String tag = first.getHeaders().getETag();
+
+        ResponseEntity<Transactions> unchanged = controller.getMethodName(query, tag).get();
+        assertEquals(HttpStatus.NOT_MODIFIED, unchanged.getStatusCode());
+        assertEquals(tag, unchanged.getHeaders().getETag());
+        assertNull(unchanged.getBody());
+        // the comparison is weak and any tag in the list can match
+        assertEquals(HttpStatus.NOT_MODIFIED, controller.getMethodName(query, "\"other\", " + tag.substring(2)).get().getStatusCode());
+
+        // the same tag does not stand for a different query
+        TransactionQuery otherQuery = new TransactionQuery();
+        otherQuery.setType("rent");
+        assertEquals(HttpStatus.OK, controller.getMethodName(otherQuery, tag).get().getStatusCode());
+    }
+
+    @Test
+    public void aPostFindingTheGroupCommitQueueFullIsRejected() throws Exception {
+        ((GroupCommitTransactionStore) controller.transactionService.transactionStore).maxPendingBatches = 0;
+        try {
+            controller.persistTransactions(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L))).get();
+            fail("the post should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void aMergeChangesTheTagSoTheNewResultIsSent() throws Exception {
+        controller.persistTransactions(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L))).get();
+        TransactionQuery query = new TransactionQuery();
+        String tag = controller.getMethodName(query, null).get().getHeaders().getETag();
+
+        TransactionResult transactionResult = controller.persistTransactions(TransactionStores.batch(new Transaction("01-01-2018", "food", 5L),
+                                                                                                     new Transaction("02-01-2018", "rent", 70L))).get();
+        assertEquals(TransactionResult.STORED_MESSAGE, transactionResult.getMessage());
+
+        ResponseEntity<Transactions> changed = controller.getMethodName(query, tag).get();
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertFalse(tag.equals(changed.getHeaders().getETag()));
+        assertEquals(Arrays.asList("01-01-2018,food,105", "02-01-2018,rent,70"), TransactionStores.text(changed.getBody().getEntries()));
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionCsvCodecTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("transactions-codec", ".csv");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void encodedRowsDecodeToTheSameTransactions() throws Exception {
+        List<Transaction> rows = Arrays.asList(new Transaction("01-01-2018", "food", "12.50"),
+                                               new Transaction("02-01-2018", "caf\u00e9", "-0.05"));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+             TransactionCsvCodec.Encoder encoder = new TransactionCsvCodec.Encoder(channel)) {
+            for (Transaction row : rows) {
+                encoder.encode(row);
+            }
+        }
+
+        List<Transaction> decoded = readAll();
+        assertEquals(2, decoded.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(rows.get(i).toCsv(), decoded.get(i).toCsv());
+        }
+    }
+
+    @Test
+    public void tornAndBlankRowsAreSkipped() throws Exception {
+        Files.write(file.toPath(), "01-01-2018,food,1.00\r\n\n02-01-2018,food,2.0".getBytes(StandardCharsets.UTF_8));
+
+        List<Transaction> decoded = readAll();
+        assertEquals(1, decoded.size());
+        assertEquals(100L, decoded.get(0).getCents());
+        assertNull(TransactionCsvCodec.decode("01-01-2018,food"));
+    }
+
+    @Test
+    public void typesHoldingCommasKeepThemAndTheAmount() throws Exception {
+        Files.write(file.toPath(), "01-01-2018,food, drink,1.00\n01-01-2018,,,2.00\r\n".getBytes(StandardCharsets.UTF_8));
+
+        List<Transaction> decoded = readAll();
+        assertEquals(2, decoded.size());
+        assertEquals("food, drink", decoded.get(0).getType());
+        assertEquals(100L, decoded.get(0).getCents());
+        assertEquals(",", decoded.get(1).getType());
+        assertEquals(200L, decoded.get(1).getCents());
+        assertEquals("a,b", TransactionCsvCodec.decode("01-01-2018,a,b,3.00").getType());
+        assertNull(TransactionCsvCodec.decode("01-01-2018,3.00"));
+    }
+
+    @Test
+    public void readsResumeFromTheOffsetTheyStoppedAt() throws Exception {
+        Files.write(file.toPath(), "01-01-2018,a,1.00\n01-01-2018,b,2.00\n01-01-2018,c,3.00\n".getBytes(StandardCharsets.UTF_8));
+
+        long offset = TransactionCsvCodec.read(file, (row, nextOffset) -> false);
+        List<Transaction> rest = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            TransactionCsvCodec.read(channel, offset, channel.size(), (row, nextOffset) -> rest.add(row));
+        }
+        assertEquals(2, rest.size());
+        assertEquals("b", rest.get(0).getType());
+    }
+
+    private List<Transaction> readAll() throws Exception {
+        List<Transaction> rows = new ArrayList<>();
+        TransactionCsvCodec.read(file, (row, nextOffset) -> rows.add(row));
+        return rows;
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TransactionFilterTest {
+
+    @Test
+    public void filtersMatchTheSameAsStringMatches() {
+        String[] filters = { ".*", "01-01-2018", "01-01-2018|02-01-2018", "\\d{2}-01-2018", "food", "fo+d", "" };
+        String[] values = { "01-01-2018", "02-01-2018", "01-02-2018", "food", "foood", "" };
+        for (String filter : filters) {
+            TransactionFilter transactionFilter = new TransactionFilter(filter, filter);
+            for (String value : values) {
+                assertEquals(filter + " against " + value, value.matches(filter), transactionFilter.matchesDate(value));
+                assertEquals(filter + " against " + value, value.matches(filter), transactionFilter.matchesType(value));
+            }
+        }
+    }
+
+    @Test
+    public void literalFiltersAreExactMatches() {
+        TransactionFilter transactionFilter = new TransactionFilter("01-01-2018", "fo.d");
+        assertEquals("01-01-2018", transactionFilter.getExactDate());
+        assertNull(transactionFilter.getExactType());
+        assertFalse(transactionFilter.matchesAll());
+        assertTrue(new TransactionFilter(TransactionQuery.DEFAULT_MATCH_ALL, TransactionQuery.DEFAULT_MATCH_ALL).matchesAll());
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import org.junit.Test;
+
+public class TransactionIndexTest {
+
+    @Test
+    public void rowsAreFoundAgainAfterTheTableGrows() {
+        TransactionIndex index = new TransactionIndex();
+        Map<TransactionKey, Long> expected = new LinkedHashMap<>();
+        // enough keys to grow the table several times, dated either side of the epoch
+        for (int day = 0; day < 120; day++) {
+            String date = TransactionDates.format(day * 97 - 6000);
+            for (int type = 0; type < 100; type++) {
+                Transaction row = new Transaction(date, "type" + type, (long) day * type);
+                index.put(row);
+                expected.put(TransactionKey.of(row), row.getCents());
+            }
+        }
+        // later rows for a date and type replace the amount in place
+        for (TransactionKey key : new ArrayList<>(expected.keySet())) {
+            if (key.getType().hashCode() % 3 == 0) {
+                index.put(new Transaction(key.getDate(), key.getType(), -1L));
+                expected.put(key, -1L);
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        int row = 0;
+        for (Map.Entry<TransactionKey, Long> entry : expected.entrySet()) {
+            Transaction stored = index.get(entry.getKey());
+            assertEquals(entry.getValue().longValue(), stored.getCents());
+            // rows keep the order they were first stored in
+            assertEquals(entry.getKey(), TransactionKey.of(index.row(row++)));
+        }
+        assertNull(index.get(new TransactionKey(TransactionDates.format(1), "type0")));
+        assertNull(index.get(new TransactionKey(TransactionDates.format(0), "type100")));
+    }
+
+    @Test
+    public void keysPackingToZeroAndTheFarthestDatesAreNotTakenForEmptySlots() {
+        TransactionIndex index = new TransactionIndex();
+        index.put(new Transaction("02-01-1970", "food", 4L));
+        // the epoch day and the first type id pack to a key of zero
+        assertNull(index.get(new TransactionKey("01-01-1970", "food")));
+        index.put(new Transaction("01-01-1970", "food", 1L));
+        index.put(new Transaction("01-01-0000", "food", 2L));
+        index.put(new Transaction("31-12-9999", "food", 3L));
+
+        assertEquals(1L, index.get(new TransactionKey("01-01-1970", "food")).getCents());
+        assertEquals(2L, index.get(new TransactionKey("01-01-0000", "food")).getCents());
+        assertEquals(3L, index.get(new TransactionKey("31-12-9999", "food")).getCents());
+        assertEquals(4L, index.get(new TransactionKey("02-01-1970", "food")).getCents());
+        assertNull(index.get(new TransactionKey("01-01-1970", "rent")));
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void queriesRecordTheRowsTheyScanAndMatch() {
+        List<String> recorded = new ArrayList<>();
+        TransactionIndex index = new TransactionIndex();
+        index.metrics = new TransactionMetrics(new CompositeMeterRegistry()) {
+            @Override
+            void recordQuery(long scanned, long matched) {
+                recorded.add(scanned + "/" + matched);
+            }
+        };
+        for (int day = 1; day <= 6; day++) {
+            index.put(new Transaction(TransactionDates.format(day), day % 2 == 0 ? "food" : "rent", day));
+        }
+
+        // the type postings only hold the food rows
+        index.find(new TransactionFilter(null, "food"), 10);
+        // the scan stops at the limit
+        index.find(new TransactionFilter(null, null), 2);
+        index.findSorted(new TransactionFilter(null, null), TransactionSort.of("amount,desc"), 1);
+        // sorted by date the walk stops at the first day reaching the limit
+        index.findSorted(new TransactionFilter(null, "rent"), TransactionSort.of("date"), 1);
+
+        assertEquals(Arrays.asList("3/3", "2/2", "6/1", "1/1"), recorded);
+    }
+
+    @Test
+    public void rowsWithoutARealDateAreKeptApart() {
+        TransactionIndex index = new TransactionIndex();
+        index.put(new Transaction("31-02-2020", "food", 5L));
+        index.put(new Transaction("15-02-2020", "food", 10L));
+        index.put(new Transaction("30-02-2020", "rent", 7L));
+        index.put(new Transaction("31-02-2020", "food", 6L));
+
+        assertEquals(3, index.size());
+        assertEquals(6L, index.get(new TransactionKey("31-02-2020", "food")).getCents());
+        assertNull(index.get(new TransactionKey("31-02-2020", "rent")));
+        assertEquals(Arrays.asList("31-02-2020,food,6", "15-02-2020,food,10", "30-02-2020,rent,7"),
+                     TransactionStores.text(index.find(new TransactionFilter(null, null), 10)));
+        assertEquals(Arrays.asList("31-02-2020,food,6"), TransactionStores.text(index.find(new TransactionFilter("31-02-2020", "food"), 10)));
+        // a date range only holds real dates
+        assertEquals(Arrays.asList("15-02-2020,food,10"), TransactionStores.text(index.find(new TransactionFilter(null, null, "01-02-2020", "29-02-2020"), 10)));
+
+        List<Transaction> sorted = index.findSorted(new TransactionFilter(null, null), TransactionSort.of("date,desc"), 10);
+        assertEquals("15-02-2020", sorted.get(0).getDate());
+        assertEquals(3, sorted.size());
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionLogTest {
+
+    private File directory;
+
+    private TransactionFiles transactionFiles;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-log").toFile();
+        transactionFiles = new TransactionFiles(directory);
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void aFailedAppendIsCutOffAndTheNextGoesToANewSegment() throws Exception {
+        TransactionLog transactionLog = open();
+        transactionLog.append(Arrays.asList(new Transaction("01-01-2018", "food", 100L)));
+
+        // enough rows to reach the segment before the row which can't be encoded
+        List<Transaction> failing = new ArrayList<>();
+        for (int row = 0; row < 5000; row++) {
+            failing.add(new Transaction("02-01-2018", "type" + row, 1L));
+        }
+        failing.add(new Transaction("02-01-2018", null, 1L));
+        try {
+            transactionLog.append(failing);
+            fail("the append should fail");
+        } catch (NullPointerException e) {
+            // expected
+        }
+        transactionLog.append(Arrays.asList(new Transaction("03-01-2018", "rent", 200L)));
+        transactionLog.close();
+
+        assertEquals(2, transactionFiles.getLogSegmentFiles().size());
+        assertEquals(Arrays.asList("01-01-2018,food,100", "03-01-2018,rent,200"), TransactionStores.text(replay()));
+    }
+
+    @Test
+    public void segmentsAreFoldedIntoTheSnapshotWithTheLastRowWinning() throws Exception {
+        TransactionLog transactionLog = open();
+        transactionLog.append(Arrays.asList(new Transaction("01-01-2018", "food", 100L), new Transaction("01-01-2018", "rent", 5L)));
+        transactionLog.compact();
+        transactionLog.append(Arrays.asList(new Transaction("01-01-2018", "food", 150L)));
+        transactionLog.append(Arrays.asList(new Transaction("02-01-2018", "food", 1L)));
+        transactionLog.compact();
+        transactionLog.close();
+
+        assertEquals(0, transactionFiles.getLogSegmentFiles().size());
+        List<String> expected = Arrays.asList("01-01-2018,food,150", "01-01-2018,rent,5", "02-01-2018,food,1");
+        assertEquals(expected, TransactionStores.text(replay()));
+        // and again from the csv alone
+        transactionFiles.getCheckpointFile().delete();
+        assertEquals(expected, TransactionStores.text(replay()));
+    }
+
+    @Test
+    public void aBatchTornByACrashIsNeverReplayedOrFolded() throws Exception {
+        TransactionLog transactionLog = open();
+        transactionLog.append(Arrays.asList(new Transaction("01-01-2018", "food", 100L)));
+        transactionLog.close();
+
+        // the crash left part of a batch without its commit line, the torn row decodes as a different valid row
+        File segment = transactionFiles.getLogSegmentFiles().get(0);
+        Files.write(segment.toPath(), "02-01-2018,rent,5.00\n04-01-2018,a,1.00".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(Arrays.asList("01-01-2018,food,100"), TransactionStores.text(replay()));
+
+        transactionLog = open();
+        transactionLog.append(Arrays.asList(new Transaction("03-01-2018", "fuel", 40L)));
+        transactionLog.compact();
+        transactionLog.close();
+        assertEquals(Arrays.asList("01-01-2018,food,100", "03-01-2018,fuel,40"), TransactionStores.text(replay()));
+    }
+
+    @Test
+    public void replayStopsAtABatchWhichDoesNotMatchItsCommitLine() throws Exception {
+        TransactionLog transactionLog = open();
+        transactionLog.append(Arrays.asList(new Transaction("01-01-2018", "food", 100L)));
+        transactionLog.append(Arrays.asList(new Transaction("02-01-2018", "rent", 70L)));
+        transactionLog.append(Arrays.asList(new Transaction("03-01-2018", "fuel", 40L)));
+        transactionLog.close();
+
+        File segment = transactionFiles.getLogSegmentFiles().get(0);
+        String text = new String(Files.readAllBytes(segment.toPath()), StandardCharsets.UTF_8);
+        Files.write(segment.toPath(), text.replace("rent,0.70", "rent,0.71").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(Arrays.asList("01-01-2018,food,100"), TransactionStores.text(replay()));
+    }
+
+    private TransactionLog open() throws Exception {
+        TransactionLog transactionLog = new TransactionLog(transactionFiles, 1024 * 1024);
+        transactionLog.loadChunkBytes = 64;
+        transactionLog.replay(row -> { });
+        return transactionLog;
+    }
+
+    private List<Transaction> replay() throws Exception {
+        TransactionIndex index = new TransactionIndex();
+        TransactionLog transactionLog = new TransactionLog(transactionFiles, 1024 * 1024);
+        transactionLog.loadChunkBytes = 64;
+        transactionLog.replay(index::put);
+        transactionLog.close();
+        List<Transaction> rows = new ArrayList<>();
+        for (int row = 0; row < index.size(); row++) {
+            rows.add(index.row(row));
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TransactionQueryCacheTest {
+
+    @Test
+    public void sortsWhichParseTheSameShareAResultAndATag() {
+        TransactionQueryCache cache = new TransactionQueryCache(16, 100, TransactionMetrics.noop());
+        List<Transaction> cached = cache.put(query("amount"), cache.generation(), Arrays.asList(new Transaction("01-01-2018", "food", 1L)));
+
+        assertSame(cached, cache.get(query("amount,asc")));
+        assertSame(cached, cache.get(query(" AMOUNT , ASC ")));
+        assertEquals(cache.tag(query("amount")), cache.tag(query("Amount,Asc")));
+        assertNull(cache.get(query("amount,desc")));
+        assertNull(cache.get(query(null)));
+        assertFalse(cache.tag(query("amount")).equals(cache.tag(query("date"))));
+    }
+
+    @Test
+    public void aMergeDropsCachedResultsAndMovesTheTagOn() {
+        TransactionQueryCache cache = new TransactionQueryCache(16, 100, TransactionMetrics.noop());
+        TransactionQuery query = query(null);
+        long generation = cache.generation();
+        String tag = cache.tag(query);
+        cache.put(query, generation, Arrays.asList(new Transaction("01-01-2018", "food", 1L)));
+
+        cache.invalidate();
+
+        assertNull(cache.get(query));
+        String newTag = cache.tag(query);
+        assertFalse(tag.equals(newTag));
+        assertFalse(TransactionQueryCache.matches(tag, newTag));
+        // a result read before the merge is never cached after it
+        cache.put(query, generation, Arrays.asList(new Transaction("01-01-2018", "food", 1L)));
+        assertNull(cache.get(query));
+    }
+
+    @Test
+    public void ifNoneMatchIsComparedWeakly() {
+        String tag = "W/\"abc\"";
+        assertTrue(TransactionQueryCache.matches("\"abc\"", tag));
+        assertTrue(TransactionQueryCache.matches("\"xyz\", W/\"abc\"", tag));
+        assertTrue(TransactionQueryCache.matches("*", tag));
+        assertFalse(TransactionQueryCache.matches("\"abd\"", tag));
+        assertFalse(TransactionQueryCache.matches(null, tag));
+    }
+
+    private static TransactionQuery query(String sort) {
+        TransactionQuery query = new TransactionQuery();
+        query.setSort(sort);
+        return query;
+    }
+
+}
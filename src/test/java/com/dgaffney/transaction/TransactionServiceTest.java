@@ -0,0 +1,240 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionServiceTest {
+
+    private File directory;
+
+    private TransactionService service;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-service").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        if (service != null) {
+            service.transactionStore.close();
+        }
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void retentionTakesExpiredMonthsOutOfTheRollupsAndTheCache() throws Exception {
+        service = service(TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 1, true, true));
+        service.persistTransactions(TransactionStores.batch(new Transaction(MonthlyTransactionStoreTest.date(20), "food", 150L),
+                                                            new Transaction(MonthlyTransactionStoreTest.date(20), "rent", 10L),
+                                                            new Transaction(MonthlyTransactionStoreTest.date(3), "food", 200L)));
+        TransactionQuery query = new TransactionQuery();
+        assertEquals(3, service.getTransactions(query).getEntries().size());
+        String tag = service.getTransactionsTag(query);
+
+        MonthlyTransactionStore monthlyStore = (MonthlyTransactionStore) ((GroupCommitTransactionStore) service.transactionStore).delegate;
+        monthlyStore.retentionMonths = 12;
+        monthlyStore.applyRetention();
+
+        assertEquals(1, service.getTransactions(query).getEntries().size());
+        assertFalse(tag.equals(service.getTransactionsTag(query)));
+        assertEquals(TransactionStores.totals(TransactionStores.rollupsOf(service.transactionStore)), TransactionStores.totals(service.transactionRollups));
+    }
+
+    @Test
+    public void retentionWaitsForAMergeIntoTheMonthToReachTheRollups() throws Exception {
+        service = service(TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 1, true, true));
+        String expiredDate = MonthlyTransactionStoreTest.date(20);
+        service.persistTransactions(TransactionStores.batch(new Transaction(expiredDate, "food", 150L),
+                                                            new Transaction(MonthlyTransactionStoreTest.date(3), "food", 200L)));
+
+        // hold the merge once it is stored but before it is applied to the rollups
+        GroupCommitTransactionStore groupCommitStore = (GroupCommitTransactionStore) service.transactionStore;
+        MonthlyTransactionStore monthlyStore = (MonthlyTransactionStore) groupCommitStore.delegate;
+        CountDownLatch stored = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        groupCommitStore.delegate = new TransactionStore() {
+            @Override
+            public TransactionResult merge(Transactions transactions) {
+                TransactionResult transactionResult = monthlyStore.merge(transactions);
+                stored.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return transactionResult;
+            }
+
+            @Override
+            public List<Transaction> find(TransactionQuery query) throws Exception {
+                return monthlyStore.find(query);
+            }
+
+            @Override
+            public void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception {
+                monthlyStore.scan(position, handler);
+            }
+        };
+        try {
+            CompletableFuture<TransactionResult> merged = service.persistTransactionsAsync(TransactionStores.batch(new Transaction(expiredDate, "food", 5L)));
+            stored.await(10, TimeUnit.SECONDS);
+
+            monthlyStore.retentionMonths = 12;
+            Thread retention = new Thread(monthlyStore::applyRetention);
+            retention.start();
+            retention.join(100);
+            assertTrue(retention.isAlive());
+
+            release.countDown();
+            assertEquals(TransactionResult.STORED_MESSAGE, merged.get(10, TimeUnit.SECONDS).getMessage());
+            retention.join(10000);
+            assertFalse(retention.isAlive());
+        } finally {
+            release.countDown();
+            groupCommitStore.delegate = monthlyStore;
+        }
+        assertEquals(1, TransactionStores.rows(service.transactionStore).size());
+        assertEquals(TransactionStores.totals(TransactionStores.rollupsOf(service.transactionStore)), TransactionStores.totals(service.transactionRollups));
+    }
+
+    @Test
+    public void rollupsMatchTheStoredRowsAfterEveryMerge() throws Exception {
+        service = service(TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 4, false, true));
+        service.persistTransactions(TransactionStores.batch(new Transaction("01-01-2018", "food", 150L), new Transaction("01-01-2018", "food", 25L),
+                                                            new Transaction("15-02-2018", "rent", 1000L)));
+        service.persistTransactions(TransactionStores.batch(new Transaction("01-01-2018", "food", -75L), new Transaction("02-01-2018", "food", 5L)));
+
+        assertEquals(3, service.transactionRollups.totals(false, null).get(0).getCount());
+        assertEquals(TransactionStores.totals(TransactionStores.rollupsOf(service.transactionStore)), TransactionStores.totals(service.transactionRollups));
+    }
+
+    @Test
+    public void aBatchTakingARollupTotalOutOfRangeIsRejected() throws Exception {
+        service = service(TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 1, false, true));
+        service.persistTransactions(TransactionStores.batch(new Transaction("01-01-2018", "food", Long.MAX_VALUE)));
+
+        // every row is in range but the total of the type and of the month are not
+        TransactionResult transactionResult = service.persistTransactions(TransactionStores.batch(new Transaction("02-01-2018", "food", 1L)));
+        assertEquals(TransactionResult.OVERFLOW_MESSAGE, transactionResult.getMessage());
+        assertEquals(TransactionResult.OVERFLOW_MESSAGE, service.persistTransactionsAsync(TransactionStores.batch(new Transaction("02-01-2018", "food", 1L)))
+                                                                .get().getMessage());
+        assertEquals(1, TransactionStores.rows(service.transactionStore).size());
+        assertEquals(TransactionStores.totals(TransactionStores.rollupsOf(service.transactionStore)), TransactionStores.totals(service.transactionRollups));
+
+        // a total brought back into range by the same batch is taken
+        transactionResult = service.persistTransactions(TransactionStores.batch(new Transaction("02-01-2018", "food", 1L), new Transaction("03-01-2018", "food", -1L)));
+        assertEquals(TransactionResult.STORED_MESSAGE, transactionResult.getMessage());
+    }
+
+    @Test
+    public void rollupsTakeThePartOfABatchStoredBeforeAMonthFailed() throws Exception {
+        service = service(TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 1, true, true));
+        String failingDate = MonthlyTransactionStoreTest.date(2);
+        String storedDate = MonthlyTransactionStoreTest.date(1);
+        service.persistTransactions(TransactionStores.batch(new Transaction(failingDate, "food", 100L), new Transaction(storedDate, "food", 100L)));
+
+        MonthlyTransactionStore monthlyStore = (MonthlyTransactionStore) ((GroupCommitTransactionStore) service.transactionStore).delegate;
+        TransactionStore failingMonth = monthlyStore.months.get(MonthlyTransactionStore.monthOfDate(failingDate));
+        monthlyStore.months.put(MonthlyTransactionStore.monthOfDate(failingDate), new TransactionStore() {
+            @Override
+            public TransactionResult merge(Transactions transactions) {
+                return new TransactionResult(0, 0, "Error occurred writing");
+            }
+
+            @Override
+            public List<Transaction> find(TransactionQuery query) throws Exception {
+                return failingMonth.find(query);
+            }
+
+            @Override
+            public void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception {
+                failingMonth.scan(position, handler);
+            }
+
+            @Override
+            public void close() {
+                failingMonth.close();
+            }
+        });
+
+        TransactionResult transactionResult = service.persistTransactions(TransactionStores.batch(new Transaction(failingDate, "food", 10L),
+                                                                                                  new Transaction(storedDate, "food", 20L),
+                                                                                                  new Transaction(storedDate, "rent", 30L)));
+
+        assertEquals("Error occurred writing", transactionResult.getMessage());
+        assertEquals(1, transactionResult.getCreated());
+        assertEquals(1, transactionResult.getUpdated());
+        assertEquals(TransactionStores.totals(TransactionStores.rollupsOf(service.transactionStore)), TransactionStores.totals(service.transactionRollups));
+    }
+
+    @Test
+    public void rollupsTakeAMergeStoredAfterItsCallerTimedOut() throws Exception {
+        TransactionStore indexStore = TransactionStores.open(directory, TransactionStoreConfig.INDEX_STORE, 1, false, false);
+        CountDownLatch release = new CountDownLatch(1);
+        GroupCommitTransactionStore store = new GroupCommitTransactionStore(new TransactionStore() {
+            @Override
+            public TransactionResult merge(Transactions transactions) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return indexStore.merge(transactions);
+            }
+
+            @Override
+            public List<Transaction> find(TransactionQuery query) throws Exception {
+                return indexStore.find(query);
+            }
+
+            @Override
+            public void scan(long position, TransactionCsvCodec.RowHandler handler) throws Exception {
+                indexStore.scan(position, handler);
+            }
+
+            @Override
+            public void close() {
+                indexStore.close();
+            }
+        }, 0, 10000);
+        store.mergeTimeoutMillis = 50;
+        service = service(store);
+
+        TransactionResult transactionResult = service.persistTransactionsAsync(TransactionStores.batch(new Transaction("01-01-2018", "food", 100L)))
+                                                     .get(10, TimeUnit.SECONDS);
+        assertTrue(transactionResult.getMessage().startsWith("Timed out"));
+
+        release.countDown();
+        store.mergeTimeoutMillis = 10000;
+        // the writer applies the late merge before it takes the next batch
+        service.persistTransactions(TransactionStores.batch(new Transaction("02-01-2018", "rent", 70L)));
+        assertEquals(2, service.transactionRollups.totals(false, null).get(0).getCount());
+        assertEquals(TransactionStores.totals(TransactionStores.rollupsOf(service.transactionStore)), TransactionStores.totals(service.transactionRollups));
+    }
+
+    /**
+     * @return TransactionService a service over the store with its rollups loaded
+     */
+    static TransactionService service(TransactionStore store) throws Exception {
+        TransactionService service = new TransactionService();
+        service.transactionStore = store;
+        service.transactionMetrics = TransactionMetrics.noop();
+        service.queryCache = new TransactionQueryCache(16, 1000, service.transactionMetrics);
+        service.loadRollups();
+        return service;
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionStoreSortTest {
+
+    private static final String[] SORTS = { "amount", "amount,desc", "date", "date,desc" };
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        directory = Files.createTempDirectory("transactions-sort").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        TransactionStores.delete(directory);
+    }
+
+    @Test
+    public void sortedQueriesMatchAFullSortOnEveryEngineAndLayout() throws Exception {
+        checkSortedQueries(TransactionStoreConfig.INDEX_STORE, 1, false, true);
+        checkSortedQueries(TransactionStoreConfig.CSV_STORE, 1, false, true);
+        checkSortedQueries(TransactionStoreConfig.COLUMNAR_STORE, 1, false, false);
+        checkSortedQueries(TransactionStoreConfig.INDEX_STORE, 3, false, true);
+        checkSortedQueries(TransactionStoreConfig.INDEX_STORE, 1, true, true);
+        checkSortedQueries(TransactionStoreConfig.CSV_STORE, 1, true, true);
+    }
+
+    private void checkSortedQueries(String engine, int partitions, boolean monthly, boolean undatedRows) throws Exception {
+        String layout = engine + " partitions " + partitions + " monthly " + monthly;
+        File storeDirectory = new File(directory, layout.replace(' ', '-'));
+        storeDirectory.mkdirs();
+        TransactionStore store = TransactionStores.open(storeDirectory, engine, partitions, monthly, false);
+        try {
+            Random random = new Random(11);
+            for (int batch = 0; batch < 20; batch++) {
+                List<Transaction> rows = new ArrayList<>();
+                for (int i = 0; i < 50; i++) {
+                    String date = TransactionDates.format(18000 + random.nextInt(900));
+                    rows.add(new Transaction(date, "t" + random.nextInt(8), (long) random.nextInt(40) - 10));
+                }
+                if (undatedRows) {
+                    // real months holding dates which are not real dates sort after every real date
+                    rows.add(new Transaction("31-02-2020", "t" + random.nextInt(8), (long) random.nextInt(40)));
+                    rows.add(new Transaction("30-02-2019", "t" + random.nextInt(8), (long) random.nextInt(40)));
+                }
+                store.merge(TransactionStores.batch(rows.toArray(new Transaction[0])));
+            }
+            List<Transaction> stored = TransactionStores.rows(store);
+
+            String[][] filters = { { ".*", ".*", null, null }, { ".*", "t3", null, null }, { ".*", ".*", "01-03-2019", "31-12-2019" } };
+            for (String[] filter : filters) {
+                for (String sortParameter : SORTS) {
+                    for (int limit : new int[] { 1, 7, 60, 100000 }) {
+                        TransactionQuery query = new TransactionQuery();
+                        query.setDate(filter[0]);
+                        query.setType(filter[1]);
+                        query.setFrom(filter[2]);
+                        query.setTo(filter[3]);
+                        query.setLimit(limit);
+                        query.setSort(sortParameter);
+                        TransactionSort sort = TransactionSort.of(sortParameter);
+
+                        List<TransactionSort.Ranked> expected = new ArrayList<>();
+                        TransactionFilter transactionFilter = TransactionFilter.of(query);
+                        for (Transaction row : stored) {
+                            if (transactionFilter.test(row)) {
+                                expected.add(sort.rank(row));
+                            }
+                        }
+                        Collections.sort(expected, sort);
+                        List<Transaction> first = new ArrayList<>();
+                        expected.stream().limit(limit).forEach(ranked -> first.add(ranked.row));
+
+                        assertEquals(layout + " " + String.join(" ", filter[1], String.valueOf(filter[2]), sortParameter) + " limit " + limit,
+                                     TransactionStores.text(first), TransactionStores.text(store.findSorted(query, sort)));
+                    }
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+}
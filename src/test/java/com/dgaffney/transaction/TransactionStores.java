@@ -0,0 +1,126 @@
+package com.dgaffney.transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Opens stores for the tests the same way {@link TransactionStoreConfig} does for the application
+ */
+final class TransactionStores {
+
+    private TransactionStores() {
+    }
+
+    /**
+     * @param directory the directory to keep the transaction files in
+     * @param engine the engine of the store, index, csv or columnar
+     * @param partitions the number of hash partitions, one for a single store
+     * @param monthly true to keep a partition per month
+     * @param groupCommit true to merge through a group commit writer
+     * @return the opened store
+     */
+    static TransactionStore open(File directory, String engine, int partitions, boolean monthly, boolean groupCommit) throws Exception {
+        return config(engine, partitions, monthly, groupCommit).transactionStore(new TransactionFiles(directory), TransactionMetrics.noop());
+    }
+
+    /**
+     * @return TransactionStoreConfig a config with the application defaults and the supplied layout
+     */
+    static TransactionStoreConfig config(String engine, int partitions, boolean monthly, boolean groupCommit) {
+        TransactionStoreConfig config = new TransactionStoreConfig();
+        config.store = engine;
+        config.logSegmentBytes = 64 * 1024;
+        config.compactionIntervalMillis = 60000;
+        config.loadChunkBytes = 8 * 1024;
+        config.checkpoints = true;
+        config.parallelScanThresholdBytes = 16 * 1024;
+        config.scanChunkBytes = 4 * 1024;
+        config.partitions = partitions;
+        config.partitioner = "hash";
+        config.monthlyPartitions = monthly;
+        config.retentionAction = MonthlyTransactionStore.ARCHIVE;
+        config.retentionArchiveDirectory = "";
+        config.retentionIntervalMillis = 3600000;
+        config.groupCommit = groupCommit;
+        config.groupCommitMaxBatchSize = 10000;
+        config.groupCommitMergeTimeoutMillis = 60000;
+        config.groupCommitMaxPendingBatches = 256;
+        config.groupCommitMaxPendingRows = 1000000;
+        return config;
+    }
+
+    /**
+     * @return List<Transaction> every row the store holds in the order it holds them
+     */
+    static List<Transaction> rows(TransactionStore store) throws Exception {
+        List<Transaction> rows = new ArrayList<>();
+        store.forEach((row, nextOffset) -> rows.add(row));
+        return rows;
+    }
+
+    /**
+     * @return List<String> the rows as date,type,cents text so amounts are compared too
+     */
+    static List<String> text(List<Transaction> rows) {
+        List<String> text = new ArrayList<>(rows.size());
+        rows.forEach(row -> text.add(row.getDate() + "," + row.getType() + "," + row.getCents()));
+        return text;
+    }
+
+    /**
+     * @return Transactions a batch holding the rows
+     */
+    static Transactions batch(Transaction... rows) {
+        Transactions transactions = new Transactions();
+        transactions.setEntries(new ArrayList<>(Arrays.asList(rows)));
+        return transactions;
+    }
+
+    /**
+     * @return TransactionRollups the rollups built from every row the store holds
+     */
+    static TransactionRollups rollupsOf(TransactionStore store) throws Exception {
+        TransactionRollups rollups = new TransactionRollups();
+        store.forEach((row, nextOffset) -> {
+            rollups.add(row, true);
+            return true;
+        });
+        return rollups;
+    }
+
+    /**
+     * @return List<String> the totals of the rollups under every grouping as text
+     */
+    static List<String> totals(TransactionRollups rollups) {
+        List<String> totals = new ArrayList<>();
+        for (boolean byType : new boolean[] { false, true }) {
+            List<TransactionBucket> buckets = new ArrayList<>(Arrays.asList(TransactionBucket.values()));
+            buckets.add(null);
+            for (TransactionBucket bucket : buckets) {
+                for (TransactionTotal total : rollups.totals(byType, bucket)) {
+                    totals.add(byType + " " + bucket + " " + total.getType() + " " + total.getPeriod() + " " + total.getAmount() + " " + total.getCount());
+                }
+            }
+        }
+        return totals;
+    }
+
+    static void delete(File directory) throws IOException {
+        if (!directory.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+}
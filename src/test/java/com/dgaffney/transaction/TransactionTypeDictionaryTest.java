@@ -0,0 +1,72 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransactionTypeDictionaryTest {
+
+    private File file;
+
+    @Before
+    public void createFile() throws Exception {
+        file = File.createTempFile("transactions-types", ".dict");
+        file.delete();
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Test
+    public void typesKeepTheirIdsWhateverTheyHold() throws Exception {
+        String[] types = {"food", "two\nlines", "carriage\rreturn", "a,b", "caf\u00e9", ""};
+        TransactionTypeDictionary dictionary = new TransactionTypeDictionary(file);
+        for (int id = 0; id < types.length; id++) {
+            assertEquals(id, dictionary.idOf(types[id]));
+        }
+        dictionary.close();
+
+        dictionary = new TransactionTypeDictionary(file);
+        try {
+            assertEquals(types.length, dictionary.size());
+            for (int id = 0; id < types.length; id++) {
+                assertEquals(types[id], dictionary.typeOf(id));
+                assertEquals(id, dictionary.find(types[id]));
+            }
+        } finally {
+            dictionary.close();
+        }
+    }
+
+    @Test
+    public void aTypeTornByACrashIsDropped() throws Exception {
+        TransactionTypeDictionary dictionary = new TransactionTypeDictionary(file);
+        dictionary.idOf("food");
+        dictionary.close();
+        long whole = file.length();
+        // the length of a type and only part of its bytes
+        Files.write(file.toPath(), new byte[] {0, 0, 0, 9, 'r', 'e'}, StandardOpenOption.APPEND);
+
+        dictionary = new TransactionTypeDictionary(file);
+        assertEquals(1, dictionary.size());
+        assertEquals(whole, file.length());
+        assertEquals(1, dictionary.idOf("rent"));
+        dictionary.close();
+
+        dictionary = new TransactionTypeDictionary(file);
+        try {
+            assertEquals("rent", dictionary.typeOf(1));
+        } finally {
+            dictionary.close();
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.dgaffney.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.Test;
+
+public class TransactionsDeserializerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void validEntriesAreReadWithTheirAmountsInCents() throws Exception {
+        Transactions transactions = objectMapper.readValue("{\"entries\":[{\"date\":\"01-01-2018\",\"type\":\"food\",\"amount\":\"12.50\"},"
+                                                           + "{\"date\":\"02-01-2018\",\"type\":\"rent\",\"amount\":\"-0.05\"}]}", Transactions.class);
+        assertNull(transactions.getInvalidMessage());
+        assertEquals(2, transactions.getEntries().size());
+        assertEquals(1250, transactions.getEntries().get(0).getCents());
+        assertEquals("rent", transactions.getEntries().get(1).getType());
+        assertEquals(-5, transactions.getEntries().get(1).getCents());
+    }
+
+    @Test
+    public void theFirstInvalidEntryIsReportedWithTheConstraintMessage() throws Exception {
+        Transactions transactions = objectMapper.readValue("{\"entries\":[{\"date\":\"1-01-2018\",\"type\":\"food\",\"amount\":\"12.50\"},"
+                                                           + "{\"date\":\"02-01-2018\",\"type\":\" \",\"amount\":\"1.00\"}]}", Transactions.class);
+        assertEquals(TransactionValidator.DATE_MESSAGE, transactions.getInvalidMessage());
+        assertTrue(transactions.getEntries().isEmpty());
+
+        assertEquals(TransactionValidator.BLANK_MESSAGE, objectMapper.readValue("{\"entries\":[{\"date\":\"01-01-2018\",\"type\":\" \",\"amount\":\"1.00\"}]}", Transactions.class).getInvalidMessage());
+        assertEquals(TransactionValidator.AMOUNT_MESSAGE, objectMapper.readValue("{\"entries\":[{\"date\":\"01-01-2018\",\"type\":\"food\",\"amount\":12.5}]}", Transactions.class).getInvalidMessage());
+        assertEquals(TransactionValidator.TYPE_MESSAGE, objectMapper.readValue("{\"entries\":[{\"date\":\"01-01-2018\",\"type\":\"fo\\nod\",\"amount\":\"1.00\"}]}", Transactions.class).getInvalidMessage());
+    }
+
+}